@@ -0,0 +1,57 @@
+package it.fb.sqlpp.jfr;
+
+import it.fb.sqlpp.FormatEvents;
+import it.fb.sqlpp.FormatMetrics;
+
+/**
+ * Emits the formatter events through the Flight Recorder, loaded by {@code FormatEvents} when available. An event
+ * which is not enabled in any recording is dropped right away, so formatting does not even collect its metrics.
+ */
+public final class JfrFormatEvents extends FormatEvents {
+
+    @Override
+    public Object beginStatement() {
+        StatementFormatEvent event = new StatementFormatEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endStatement(Object event, FormatMetrics metrics) {
+        StatementFormatEvent statementEvent = (StatementFormatEvent) event;
+        statementEvent.end();
+        if (statementEvent.shouldCommit()) {
+            statementEvent.inputLength = metrics.getInputLength();
+            statementEvent.outputLength = metrics.getOutputLength();
+            statementEvent.parser = metrics.getParser().name();
+            statementEvent.llFallback = metrics.getParser() == FormatMetrics.Parser.LL;
+            statementEvent.brokenSubtrees = metrics.getBrokenSubtrees();
+            statementEvent.tokenCount = metrics.getTokenCount();
+            statementEvent.commit();
+        }
+    }
+
+    @Override
+    public Object beginMapper() {
+        MapperFormatEvent event = new MapperFormatEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endMapper(Object event, int statements, int failures) {
+        MapperFormatEvent mapperEvent = (MapperFormatEvent) event;
+        mapperEvent.end();
+        if (mapperEvent.shouldCommit()) {
+            mapperEvent.statements = statements;
+            mapperEvent.failures = failures;
+            mapperEvent.commit();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package it.fb.sqlpp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("it.fb.sqlpp.MapperFormat")
+@Label("Format MyBatis Mapper")
+@Description("A MyBatis mapper file formatted by MybatisFormatter")
+@Category({"SQL Pretty Printer", "Formatting"})
+class MapperFormatEvent extends jdk.jfr.Event {
+
+    @Label("Statements")
+    @Description("The number of statements found in the mapper file")
+    int statements;
+
+    @Label("Failures")
+    @Description("The number of statements which could not be formatted, and were left as they were")
+    int failures;
+}
@@ -0,0 +1,38 @@
+package it.fb.sqlpp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("it.fb.sqlpp.StatementFormat")
+@Label("Format SQL Statement")
+@Description("A statement formatted by StatementLayout2")
+@Category({"SQL Pretty Printer", "Formatting"})
+@StackTrace(false)
+class StatementFormatEvent extends jdk.jfr.Event {
+
+    @Label("Input Length")
+    @Description("The length of the statement, in characters")
+    int inputLength;
+
+    @Label("Output Length")
+    @Description("The length of the formatted statement, in characters")
+    long outputLength;
+
+    @Label("Parser")
+    @Description("The parser which produced the tree of the statement: FAST_PATH, SLL or LL")
+    String parser;
+
+    @Label("LL Fallback")
+    @Description("Whether SLL prediction failed, and the statement was parsed again with full LL prediction")
+    boolean llFallback;
+
+    @Label("Broken Subtrees")
+    @Description("The subtrees which did not fit on their line, and were laid out on separate lines")
+    int brokenSubtrees;
+
+    @Label("Tokens")
+    int tokenCount;
+}
@@ -0,0 +1,64 @@
+package it.fb.sqlpp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput of {@code FormattingService} with a growing number of threads, which should grow about linearly
+ * up to the number of cores. Every invocation submits a batch of statements and waits for all of them, so the
+ * score is in statements per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattingServiceBenchmark {
+
+    private static final int BATCH = 256;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private final String[] statements = new String[BATCH];
+    private final CompletableFuture<?>[] results = new CompletableFuture<?>[BATCH];
+    private FormattingService service;
+
+    @Setup
+    public void setUp() {
+        SqlGenerator.Shape[] shapes = SqlGenerator.Shape.values();
+        for (int i = 0; i < BATCH; i++) {
+            statements[i] = shapes[i % shapes.length].generate(1 + i % 10);
+        }
+        service = FormattingService.withThreads(threads, BATCH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object formatBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            results[i] = service.submit(80, 2, statements[i]);
+        }
+        return CompletableFuture.allOf(results).join();
+    }
+}
@@ -0,0 +1,82 @@
+package it.fb.sqlpp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Laying out an already built tree at several line widths, and formatting a statement end to end. The sizes grow
+ * by a factor of ten, so that the time per size shows how the layout scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+    @Param({"TYPICAL", "IN_LIST", "OR_CHAIN", "JOINS"})
+    public SqlGenerator.Shape shape;
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"20", "80", "200"})
+    public int lineWidth;
+
+    private String sql;
+    private Tree tree;
+    private CompactTree compactTree;
+    private final StringBuilder output = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        sql = shape.generate(size);
+        tree = StatementLayout2.parseWithAntlr(sql);
+        compactTree = CompactTree.of(tree);
+    }
+
+    @Benchmark
+    public Object compactTree() {
+        return CompactTree.of(tree);
+    }
+
+    @Benchmark
+    public String treeLayout() {
+        return TreeLayout.format(lineWidth, 2, compactTree);
+    }
+
+    /**
+     * Lays out into a reused {@code StringBuilder}, without building a {@code String}.
+     */
+    @Benchmark
+    public int treeLayoutReusedBuilder() {
+        output.setLength(0);
+        TreeLayout.format(lineWidth, 2, compactTree, output);
+        return output.length();
+    }
+
+    @Benchmark
+    public int streamingLayout() throws IOException {
+        output.setLength(0);
+        StreamingLayout.format(lineWidth, 2, compactTree, output);
+        return output.length();
+    }
+
+    @Benchmark
+    public String format() {
+        return StatementLayout2.format(lineWidth, 2, sql);
+    }
+}
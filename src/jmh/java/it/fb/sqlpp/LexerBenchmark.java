@@ -0,0 +1,69 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.CaseInsensitiveStream;
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing a statement, through the copying {@code CaseInsensitiveStream} and through {@code CaseInsensitiveCharStream}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"TYPICAL", "IN_LIST", "NESTED_CASE"})
+    public SqlGenerator.Shape shape;
+
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private String sql;
+
+    @Setup
+    public void setUp() {
+        sql = shape.generate(size);
+    }
+
+    @Benchmark
+    public int caseInsensitiveStream() {
+        return lex(new CaseInsensitiveStream(new ANTLRInputStream(sql)));
+    }
+
+    @Benchmark
+    public int caseInsensitiveCharStream() {
+        return lex(new CaseInsensitiveCharStream(sql));
+    }
+
+    @Benchmark
+    public String minify() {
+        return StatementLayout2.minify(sql);
+    }
+
+    private static int lex(CharStream input) {
+        SqlBaseLexer lexer = new SqlBaseLexer(input);
+        int count = 0;
+        while (lexer.nextToken().getType() != Token.EOF) {
+            count++;
+        }
+        return count;
+    }
+}
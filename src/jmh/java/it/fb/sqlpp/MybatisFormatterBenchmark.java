@@ -0,0 +1,48 @@
+package it.fb.sqlpp;
+
+import it.fb.sqlpp.it.fb.sqlpp.mybatis.MybatisFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting a whole MyBatis mapper file, with a growing number of statements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MybatisFormatterBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int statements;
+
+    private byte[] mapper;
+
+    @Setup
+    public void setUp() {
+        mapper = SqlGenerator.mapper(SqlGenerator.Shape.TYPICAL, 10, statements).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int format() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(mapper.length * 2);
+        MybatisFormatter.format(new ByteArrayInputStream(mapper), output, 80, 4);
+        return output.size();
+    }
+}
@@ -0,0 +1,93 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseLexer;
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a statement: with a fresh ANTLR parser in SLL and in LL mode, with the reused parser of
+ * {@code StatementLayout2}, and with {@code FastPathParser}; and building its {@code Tree}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"TYPICAL", "IN_LIST", "NESTED_CASE", "JOINS", "UNIONS"})
+    public SqlGenerator.Shape shape;
+
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private String sql;
+
+    @Setup
+    public void setUp() {
+        sql = shape.generate(size);
+    }
+
+    @Benchmark
+    public Object freshParserSll() {
+        SqlBaseParser parser = newParser(sql);
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        return parser.singleStatement();
+    }
+
+    @Benchmark
+    public Object freshParserLl() {
+        SqlBaseParser parser = newParser(sql);
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        return parser.singleStatement();
+    }
+
+    @Benchmark
+    public Object reusedParser() {
+        return StatementLayout2.invokeParser(sql);
+    }
+
+    @Benchmark
+    public Object fastPathParser() {
+        return FastPathParser.parse(sql, Deadline.NONE);
+    }
+
+    /**
+     * The {@code Tree} built from the ANTLR parse tree, materialized.
+     */
+    @Benchmark
+    public Object antlrToTree() {
+        return CompactTree.of(StatementLayout2.parseWithAntlr(sql));
+    }
+
+    /**
+     * The {@code Tree} as built when formatting, by {@code FastPathParser} whenever it supports the statement.
+     */
+    @Benchmark
+    public Object toTree() {
+        return StatementLayout2.toTree(sql);
+    }
+
+    private static SqlBaseParser newParser(String sql) {
+        SqlBaseParser parser = new SqlBaseParser(new CommonTokenStream(new SqlBaseLexer(new CaseInsensitiveCharStream(sql))));
+        parser.removeErrorListeners();
+        return parser;
+    }
+}
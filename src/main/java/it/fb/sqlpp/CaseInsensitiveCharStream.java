@@ -0,0 +1,107 @@
+package it.fb.sqlpp;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@code CharStream} over a {@code CharSequence}, returning upper case lookahead characters as
+ * {@code CaseInsensitiveStream} does. The sequence is not copied, so it must not change while being lexed; token
+ * texts are taken from it with their original case.
+ * <p>
+ * Lookahead characters in the ASCII range are converted through a table, and only the others through
+ * {@code Character.toUpperCase}.
+ */
+final class CaseInsensitiveCharStream implements CharStream {
+
+    private static final char[] ASCII_UPPER_CASE = new char[128];
+
+    static {
+        for (char c = 0; c < ASCII_UPPER_CASE.length; c++) {
+            ASCII_UPPER_CASE[c] = c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c;
+        }
+    }
+
+    private final CharSequence data;
+    private final int size;
+    private int p = 0;
+
+    CaseInsensitiveCharStream(CharSequence data) {
+        this.data = data;
+        this.size = data.length();
+    }
+
+    @Override
+    public int LA(int i) {
+        int index;
+        if (i > 0) {
+            index = p + i - 1;
+            if (index >= size) {
+                return IntStream.EOF;
+            }
+        } else if (i < 0) {
+            index = p + i;
+            if (index < 0) {
+                return IntStream.EOF;
+            }
+        } else {
+            return 0;
+        }
+        char c = data.charAt(index);
+        return c < ASCII_UPPER_CASE.length ? ASCII_UPPER_CASE[c] : Character.toUpperCase(c);
+    }
+
+    @Override
+    public void consume() {
+        if (p >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        p = Math.max(0, Math.min(index, size));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = interval.a;
+        int stop = Math.min(interval.b, size - 1);
+        if (start >= size || stop < start) {
+            return "";
+        }
+        return data.subSequence(start, stop + 1).toString();
+    }
+
+    /**
+     * @return The characters from {@code start} (inclusive) to {@code end} (exclusive), not copied
+     */
+    CharSequence slice(int start, int end) {
+        return Labels.slice(data, start, end);
+    }
+
+    @Override
+    public String getSourceName() {
+        return IntStream.UNKNOWN_SOURCE_NAME;
+    }
+}
@@ -0,0 +1,283 @@
+package it.fb.sqlpp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable, materialized {@code Tree}. The content of the tree is visited only once, and stored in an arena of
+ * primitive arrays: every item (a leaf, or a child with its labels) has a kind, indexes into a table of labels and
+ * the range of the items making up its subtree. The width each subtree takes when laid out straight is computed
+ * once, while building.
+ * <p>
+ * Layout strategies can walk the items by index, without allocating anything and without visiting the original
+ * {@code Tree} again.
+ */
+public final class CompactTree implements Tree {
+
+    static final byte LEAF = 0;
+    static final byte CHILD = 1;
+    static final byte SINGLE_CHILD = 2;
+
+    /**
+     * The item holding the whole tree as its subtree.
+     */
+    static final int ROOT = 0;
+
+    private static final int NO_LABEL = 0;
+
+    private final CharSequence[] labels;
+    private final byte[] kinds;
+    private final int[] texts;
+    private final int[] postLabels;
+    private final int[] firstChildren;
+    private final int[] childEnds;
+    private final int[] widths;
+    private final boolean[] leadingSpaces;
+    private final int size;
+
+    private CompactTree(Builder builder) {
+        this.labels = Arrays.copyOf(builder.labels, builder.labelCount);
+        this.size = builder.size;
+        this.kinds = Arrays.copyOf(builder.kinds, size);
+        this.texts = Arrays.copyOf(builder.texts, size);
+        this.postLabels = Arrays.copyOf(builder.postLabels, size);
+        this.firstChildren = Arrays.copyOf(builder.firstChildren, size);
+        this.childEnds = Arrays.copyOf(builder.childEnds, size);
+        this.widths = new int[size];
+        this.leadingSpaces = new boolean[size];
+        measure();
+    }
+
+    public static CompactTree of(Tree tree) {
+        if (tree instanceof CompactTree) {
+            return (CompactTree) tree;
+        }
+        return new Builder(Deadline.NONE).build(tree);
+    }
+
+    static CompactTree of(Tree tree, Deadline deadline) {
+        if (tree instanceof CompactTree) {
+            return (CompactTree) tree;
+        }
+        return new Builder(deadline).build(tree);
+    }
+
+    /**
+     * @return The number of items in the tree, including the root item
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void accept(Visitor visitor) {
+        accept(ROOT, visitor);
+    }
+
+    private void accept(int owner, Visitor visitor) {
+        for (int i = firstChildren[owner]; i < childEnds[owner]; i++) {
+            switch (kinds[i]) {
+                case LEAF:
+                    visitor.leaf(labels[texts[i]]);
+                    break;
+                case CHILD:
+                    int child = i;
+                    visitor.child(labels[texts[i]], labels[postLabels[i]], v -> accept(child, v));
+                    break;
+                default:
+                    int singleChild = i;
+                    visitor.singleChild(labels[texts[i]], labels[postLabels[i]], v -> accept(singleChild, v));
+                    break;
+            }
+        }
+    }
+
+    byte kind(int item) {
+        return kinds[item];
+    }
+
+    /**
+     * @return The text of a leaf, or the pre-label of a child
+     */
+    CharSequence text(int item) {
+        return labels[texts[item]];
+    }
+
+    CharSequence postLabel(int item) {
+        return labels[postLabels[item]];
+    }
+
+    int firstChild(int item) {
+        return firstChildren[item];
+    }
+
+    int childEnd(int item) {
+        return childEnds[item];
+    }
+
+    /**
+     * @return Whether the subtree of the item produces no text at all
+     */
+    boolean isEmpty(int item) {
+        return widths[item] == 0;
+    }
+
+    /**
+     * @return The width of the subtree of the item when laid out straight, not counting the space which might be
+     * placed before its first text
+     */
+    int width(int item) {
+        return widths[item];
+    }
+
+    /**
+     * @return Whether a space is placed before the first text of the subtree of the item, when it does not start a
+     * line
+     */
+    boolean leadingSpace(int item) {
+        return leadingSpaces[item];
+    }
+
+    /**
+     * Subtrees are stored after the item owning them, so measuring the items backwards finds every subtree already
+     * measured.
+     */
+    private void measure() {
+        for (int owner = size - 1; owner >= 0; owner--) {
+            if (kinds[owner] == LEAF) {
+                continue;
+            }
+            int width = 0;
+            boolean leadingSpace = false;
+            for (int i = firstChildren[owner]; i < childEnds[owner]; i++) {
+                if (kinds[i] == LEAF) {
+                    int w = labels[texts[i]].length();
+                    if (w > 0) {
+                        leadingSpace |= width == 0;
+                        width += w + (width == 0 ? 0 : 1);
+                    }
+                } else {
+                    int w = labels[texts[i]].length();
+                    if (w > 0) {
+                        leadingSpace |= width == 0;
+                        width += w + (width == 0 ? 0 : 1);
+                    }
+                    w = widths[i];
+                    if (w > 0) {
+                        boolean space = leadingSpaces[i];
+                        leadingSpace |= width == 0 && space;
+                        width += w + (width > 0 && space ? 1 : 0);
+                    }
+                    w = labels[postLabels[i]].length();
+                    if (w > 0) {
+                        width += w;
+                    }
+                }
+            }
+            widths[owner] = width;
+            leadingSpaces[owner] = leadingSpace;
+        }
+    }
+
+    /**
+     * Visits the {@code Tree} breadth first, so that the items of every subtree end up next to each other.
+     */
+    private static final class Builder implements Visitor {
+        private final Map<String, Integer> labelIndexes = new HashMap<>();
+        private CharSequence[] labels = new CharSequence[16];
+        private int labelCount = 0;
+        private byte[] kinds = new byte[16];
+        private int[] texts = new int[16];
+        private int[] postLabels = new int[16];
+        private int[] firstChildren = new int[16];
+        private int[] childEnds = new int[16];
+        private Tree[] subTrees = new Tree[16];
+        private int size = 0;
+        private final Deadline deadline;
+
+        private Builder(Deadline deadline) {
+            this.deadline = deadline;
+            labels[NO_LABEL] = "";
+            labelCount = 1;
+        }
+
+        CompactTree build(Tree tree) {
+            add(SINGLE_CHILD, NO_LABEL, NO_LABEL, tree);
+            for (int owner = 0; owner < size; owner++) {
+                Tree subTree = subTrees[owner];
+                if (subTree != null) {
+                    subTrees[owner] = null;
+                    firstChildren[owner] = size;
+                    subTree.accept(this);
+                    childEnds[owner] = size;
+                }
+            }
+            return new CompactTree(this);
+        }
+
+        @Override
+        public Visitor leaf(CharSequence text) {
+            add(LEAF, label(text), NO_LABEL, null);
+            return this;
+        }
+
+        @Override
+        public Visitor child(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
+            add(CHILD, label(preLabel), label(postLabel), subTree);
+            return this;
+        }
+
+        @Override
+        public void singleChild(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
+            add(SINGLE_CHILD, label(preLabel), label(postLabel), subTree);
+        }
+
+        /**
+         * Constant labels are stored once; slices of the statement are stored as they are, since comparing them
+         * would take as long as copying them.
+         */
+        private int label(CharSequence text) {
+            if (Labels.isEmpty(text)) {
+                return NO_LABEL;
+            }
+            if (!(text instanceof String)) {
+                return addLabel(text);
+            }
+            Integer index = labelIndexes.get(text);
+            if (index == null) {
+                index = addLabel(text);
+                labelIndexes.put((String) text, index);
+            }
+            return index;
+        }
+
+        private int addLabel(CharSequence text) {
+            if (labelCount == labels.length) {
+                labels = Arrays.copyOf(labels, labelCount * 2);
+            }
+            labels[labelCount] = text;
+            return labelCount++;
+        }
+
+        private void add(byte kind, int text, int postLabel, Tree subTree) {
+            deadline.check();
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                texts = Arrays.copyOf(texts, capacity);
+                postLabels = Arrays.copyOf(postLabels, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                childEnds = Arrays.copyOf(childEnds, capacity);
+                subTrees = Arrays.copyOf(subTrees, capacity);
+            }
+            kinds[size] = kind;
+            texts[size] = text;
+            postLabels[size] = postLabel;
+            firstChildren[size] = size + 1;
+            childEnds[size] = size + 1;
+            subTrees[size] = subTree;
+            size++;
+        }
+    }
+}
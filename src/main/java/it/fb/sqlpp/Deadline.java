@@ -0,0 +1,49 @@
+package it.fb.sqlpp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which formatting a statement must complete. It is checked cooperatively by the loops of the lexer,
+ * the parser, the tree building and the layout: {@code check} reads the clock only once every few calls, so that it
+ * can be called once per token or per item.
+ */
+final class Deadline {
+
+    static final Deadline NONE = new Deadline(0, false);
+
+    private static final int CHECK_INTERVAL_MASK = 0xFF;
+
+    private final long expiresAt;
+    private final boolean bounded;
+    private final long timeoutNanos;
+    private int ticks = 0;
+
+    private Deadline(long timeoutNanos, boolean bounded) {
+        this.timeoutNanos = timeoutNanos;
+        this.expiresAt = System.nanoTime() + timeoutNanos;
+        this.bounded = bounded;
+    }
+
+    static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(unit.toNanos(timeout), true);
+    }
+
+    /**
+     * @throws FormatTimeoutException Every few calls, if the deadline has passed
+     */
+    void check() {
+        if (bounded && (++ticks & CHECK_INTERVAL_MASK) == 0) {
+            checkNow();
+        }
+    }
+
+    /**
+     * @throws FormatTimeoutException If the deadline has passed
+     */
+    void checkNow() {
+        if (bounded && System.nanoTime() - expiresAt >= 0) {
+            throw new FormatTimeoutException("Formatting did not complete within "
+                    + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+        }
+    }
+}
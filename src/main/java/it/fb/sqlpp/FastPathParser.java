@@ -0,0 +1,910 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A recursive descent parser for the most common statements: queries without WITH clauses or set operations,
+ * INSERT and DELETE. It builds the same {@code Tree} as {@code StatementLayout2} would build from the ANTLR parse
+ * tree, without going through ANTLR adaptive prediction.
+ * <p>
+ * The parser gives up, returning null, as soon as it meets anything outside of its subset, including syntax errors
+ * and keywords used as identifiers: the statement is then parsed by ANTLR, which also reports any error. Where the
+ * grammar is ambiguous (as with {@code ((SELECT ...))}) it gives up as well, rather than risk choosing a different
+ * alternative than ANTLR does.
+ */
+final class FastPathParser {
+
+    private static final int DOT = literalType("'.'");
+    private static final int LPAREN = literalType("'('");
+    private static final int RPAREN = literalType("')'");
+    private static final int COMMA = literalType("','");
+    private static final int QUESTION = literalType("'?'");
+
+    private static final Bail BAIL = new Bail();
+    private static final ThreadLocal<FastPathParser> PARSERS = ThreadLocal.withInitial(FastPathParser::new);
+
+    private final SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveCharStream(""));
+    private int[] types = new int[64];
+    /**
+     * The offsets of the tokens in the statement, whose texts are only sliced out of it for labels.
+     */
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private String sql;
+    private int count;
+    private int pos;
+    private Deadline deadline;
+
+    private FastPathParser() {
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+                throw BAIL;
+            }
+        });
+    }
+
+    /**
+     * @return The tree of the statement, or null if the statement must be parsed by ANTLR
+     */
+    static Tree parse(String sql, Deadline deadline) {
+        return PARSERS.get().tryParse(sql, deadline, null);
+    }
+
+    /**
+     * @param metrics Where to record the time spent and the tokens found, or null
+     */
+    static Tree parse(String sql, Deadline deadline, FormatMetrics metrics) {
+        return PARSERS.get().tryParse(sql, deadline, metrics);
+    }
+
+    private Tree tryParse(String sql, Deadline deadline, FormatMetrics metrics) {
+        this.deadline = deadline;
+        long start = metrics == null ? 0 : System.nanoTime();
+        long tokenized = 0;
+        boolean lexed = false;
+        try {
+            tokenize(sql);
+            lexed = true;
+            if (metrics != null) {
+                tokenized = System.nanoTime();
+                metrics.lexingNanos += tokenized - start;
+                metrics.tokenCount = count - 1;
+            }
+            Tree tree = statement();
+            if (peek() != Token.EOF) {
+                return null;
+            }
+            if (metrics != null) {
+                metrics.parser = FormatMetrics.Parser.FAST_PATH;
+            }
+            return tree;
+        } catch (Bail | StackOverflowError ex) {
+            return null;
+        } finally {
+            if (metrics != null) {
+                if (lexed) {
+                    metrics.fastPathNanos = System.nanoTime() - tokenized;
+                } else {
+                    // Gave up while tokenizing: all the time was spent lexing
+                    metrics.lexingNanos += System.nanoTime() - start;
+                }
+            }
+            lexer.setInputStream(new CaseInsensitiveCharStream(""));
+            this.sql = null;
+            this.deadline = null;
+        }
+    }
+
+    private void tokenize(String sql) {
+        this.sql = sql;
+        lexer.setInputStream(new CaseInsensitiveCharStream(sql));
+        count = 0;
+        pos = 0;
+        Token token;
+        do {
+            token = lexer.nextToken();
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            if (token.getType() == SqlBaseLexer.UNRECOGNIZED) {
+                throw BAIL;
+            }
+            deadline.check();
+            if (count == types.length) {
+                types = Arrays.copyOf(types, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            types[count] = token.getType();
+            starts[count] = token.getStartIndex();
+            ends[count] = token.getStopIndex() + 1;
+            count++;
+        } while (token.getType() != Token.EOF);
+    }
+
+    private Tree statement() {
+        switch (peek()) {
+            case SqlBaseLexer.SELECT:
+            case SqlBaseLexer.VALUES:
+                return query();
+            case SqlBaseLexer.INSERT:
+                return insertInto();
+            case SqlBaseLexer.DELETE:
+                return delete();
+            default:
+                throw BAIL;
+        }
+    }
+
+    private Tree insertInto() {
+        expect(SqlBaseLexer.INSERT);
+        expect(SqlBaseLexer.INTO);
+        CharSequence table = qualifiedName();
+        Tree columns = null;
+        if (peek() == LPAREN) {
+            if (!isIdentifier(peek(1)) || peek(2) != COMMA && peek(2) != RPAREN) {
+                throw BAIL;
+            }
+            pos++;
+            List<Tree> identifiers = new ArrayList<>();
+            do {
+                identifiers.add(leaf(identifier()));
+            } while (accept(COMMA));
+            expect(RPAREN);
+            columns = children(identifiers, "", ",", "");
+        }
+        Tree query = query();
+        Tree aliases = columns;
+        return nc -> {
+            if (aliases == null) {
+                nc.leaf(Labels.concat("INSERT INTO ", table));
+            } else {
+                nc.child(Labels.concat("INSERT INTO ", table, " ("), ")", aliases);
+            }
+            nc.child("", "", query);
+        };
+    }
+
+    private Tree delete() {
+        expect(SqlBaseLexer.DELETE);
+        expect(SqlBaseLexer.FROM);
+        CharSequence table = qualifiedName();
+        Tree where = accept(SqlBaseLexer.WHERE) ? booleanExpression() : null;
+        return nc -> {
+            nc.leaf(Labels.concat("DELETE FROM ", table));
+            if (where != null) {
+                nc.child("WHERE", "", where);
+            }
+        };
+    }
+
+    private Tree query() {
+        Tree term = queryPrimary();
+        switch (peek()) {
+            case SqlBaseLexer.UNION:
+            case SqlBaseLexer.INTERSECT:
+            case SqlBaseLexer.EXCEPT:
+                throw BAIL;
+            default:
+                break;
+        }
+        List<Tree> sortItems = new ArrayList<>();
+        if (accept(SqlBaseLexer.ORDER)) {
+            expect(SqlBaseLexer.BY);
+            do {
+                sortItems.add(sortItem());
+            } while (accept(COMMA));
+        }
+        CharSequence limit = null;
+        if (accept(SqlBaseLexer.LIMIT)) {
+            if (peek() != SqlBaseLexer.INTEGER_VALUE && peek() != SqlBaseLexer.ALL) {
+                throw BAIL;
+            }
+            limit = take();
+        }
+        if (sortItems.isEmpty() && limit == null) {
+            return term;
+        }
+        CharSequence limitText = limit;
+        return nc -> {
+            term.accept(nc);
+            if (!sortItems.isEmpty()) {
+                nc.child("ORDER BY", "", children(sortItems, "", ",", ""));
+            }
+            if (limitText != null) {
+                nc.child("LIMIT", "", nc2 -> nc2.leaf(limitText));
+            }
+        };
+    }
+
+    private Tree queryPrimary() {
+        if (accept(SqlBaseLexer.VALUES)) {
+            List<Tree> rows = expressions();
+            Tree values = children(rows, "", ",", "");
+            return nc -> nc.singleChild("VALUES", "", values);
+        }
+        return querySpecification();
+    }
+
+    private Tree sortItem() {
+        Tree expression = booleanExpression();
+        CharSequence postLabel = "";
+        if (peek() == SqlBaseLexer.ASC || peek() == SqlBaseLexer.DESC) {
+            postLabel = Labels.concat(" ", take());
+        }
+        if (accept(SqlBaseLexer.NULLS)) {
+            if (peek() != SqlBaseLexer.FIRST && peek() != SqlBaseLexer.LAST) {
+                throw BAIL;
+            }
+            postLabel = Labels.concat(postLabel, " NULLS ", take());
+        }
+        CharSequence label = postLabel;
+        return nc -> nc.singleChild("", label, expression);
+    }
+
+    private Tree querySpecification() {
+        expect(SqlBaseLexer.SELECT);
+        if (peek() == SqlBaseLexer.DISTINCT || peek() == SqlBaseLexer.ALL) {
+            throw BAIL;
+        }
+        List<Tree> selectItems = new ArrayList<>();
+        do {
+            selectItems.add(selectItem());
+        } while (accept(COMMA));
+        List<Tree> relations = new ArrayList<>();
+        if (accept(SqlBaseLexer.FROM)) {
+            do {
+                relations.add(relation());
+            } while (accept(COMMA));
+        }
+        Tree where = accept(SqlBaseLexer.WHERE) ? booleanExpression() : null;
+        List<Tree> groupingElements = new ArrayList<>();
+        if (accept(SqlBaseLexer.GROUP)) {
+            expect(SqlBaseLexer.BY);
+            if (peek() == SqlBaseLexer.DISTINCT || peek() == SqlBaseLexer.ALL) {
+                throw BAIL;
+            }
+            do {
+                if (peek() == LPAREN) {
+                    // either a parenthesized expression or a grouping set
+                    throw BAIL;
+                }
+                Tree expression = booleanExpression();
+                groupingElements.add(nc -> nc.singleChild("", "", expression));
+            } while (accept(COMMA));
+        }
+        Tree having = accept(SqlBaseLexer.HAVING) ? booleanExpression() : null;
+        return nc -> {
+            nc.child("SELECT", "", children(selectItems, "", ",", ""));
+            if (!relations.isEmpty()) {
+                nc.child("FROM", "", children2(relations, "", ",", ""));
+            }
+            if (where != null) {
+                nc.child("WHERE", "", where);
+            }
+            if (!groupingElements.isEmpty()) {
+                nc.child("GROUP BY", "", children(groupingElements, "", ",", ""));
+            }
+            if (having != null) {
+                nc.child("HAVING", "", having);
+            }
+        };
+    }
+
+    private Tree selectItem() {
+        if (accept(SqlBaseLexer.ASTERISK)) {
+            return leaf("*");
+        }
+        for (int k = 0; isIdentifier(peek(k)) && peek(k + 1) == DOT; k += 2) {
+            if (peek(k + 2) == SqlBaseLexer.ASTERISK) {
+                CharSequence name = qualifiedName();
+                expect(DOT);
+                expect(SqlBaseLexer.ASTERISK);
+                return leaf(Labels.concat(name, ".*"));
+            }
+        }
+        Tree expression = booleanExpression();
+        CharSequence alias = null;
+        if (accept(SqlBaseLexer.AS)) {
+            alias = identifier();
+        } else if (isIdentifier(peek())) {
+            alias = take();
+        }
+        if (alias == null) {
+            return expression;
+        }
+        CharSequence postLabel = Labels.concat(" AS ", alias);
+        return nc -> nc.singleChild("", postLabel, expression);
+    }
+
+    /**
+     * A chain of joins is laid out flat, as the children of a single tree, so that visiting it takes time linear
+     * with its length.
+     */
+    private Tree relation() {
+        Tree first = aliasedRelation();
+        List<Tree> joins = new ArrayList<>();
+        while (true) {
+            CharSequence joinType;
+            switch (peek()) {
+                case SqlBaseLexer.JOIN:
+                    joinType = "";
+                    break;
+                case SqlBaseLexer.INNER:
+                    joinType = take();
+                    break;
+                case SqlBaseLexer.LEFT:
+                case SqlBaseLexer.RIGHT:
+                case SqlBaseLexer.FULL:
+                    joinType = take();
+                    if (peek() == SqlBaseLexer.OUTER) {
+                        // the text of the joinType rule, whose tokens are not separated
+                        joinType = Labels.concat(joinType, take());
+                    }
+                    break;
+                default:
+                    if (joins.isEmpty()) {
+                        return first;
+                    }
+                    return nc -> {
+                        first.appendTo(nc);
+                        for (Tree join : joins) {
+                            join.accept(nc);
+                        }
+                    };
+            }
+            expect(SqlBaseLexer.JOIN);
+            Tree right = relation();
+            expect(SqlBaseLexer.ON);
+            Tree condition = booleanExpression();
+            CharSequence label = Labels.concat(joinType, " JOIN");
+            joins.add(nc -> nc.child(label, "", nc2 -> {
+                right.accept(nc2);
+                nc2.child("", "", nc3 -> nc3.singleChild("ON", "", condition));
+            }));
+        }
+    }
+
+    private Tree aliasedRelation() {
+        Tree primary;
+        if (peek() == LPAREN) {
+            if (!startsQuery()) {
+                throw BAIL;
+            }
+            pos++;
+            Tree query = query();
+            expect(RPAREN);
+            primary = nc -> nc.singleChild("(", " )", query);
+        } else {
+            primary = leaf(qualifiedName());
+        }
+        CharSequence alias = null;
+        if (accept(SqlBaseLexer.AS)) {
+            alias = identifier();
+        } else if (isIdentifier(peek())) {
+            alias = take();
+        }
+        if (alias == null) {
+            return primary;
+        }
+        if (peek() == LPAREN) {
+            throw BAIL;
+        }
+        CharSequence postLabel = Labels.concat(" ", alias);
+        return nc -> nc.singleChild("", postLabel, primary);
+    }
+
+    private Tree booleanExpression() {
+        Tree left = and();
+        while (peek() == SqlBaseLexer.OR) {
+            CharSequence operator = take();
+            left = new LogicalBinary(left, operator, and());
+        }
+        return left;
+    }
+
+    private Tree and() {
+        Tree left = not();
+        while (peek() == SqlBaseLexer.AND) {
+            CharSequence operator = take();
+            left = new LogicalBinary(left, operator, not());
+        }
+        return left;
+    }
+
+    private Tree not() {
+        if (accept(SqlBaseLexer.NOT)) {
+            Tree operand = not();
+            return nc -> nc.singleChild("NOT", "", operand);
+        }
+        return predicated();
+    }
+
+    private Tree predicated() {
+        Tree value = valueExpression();
+        switch (peek()) {
+            case SqlBaseLexer.EQ:
+            case SqlBaseLexer.NEQ:
+            case SqlBaseLexer.LT:
+            case SqlBaseLexer.LTE:
+            case SqlBaseLexer.GT:
+            case SqlBaseLexer.GTE: {
+                CharSequence operator = take();
+                if (peek() == SqlBaseLexer.ALL || peek() == SqlBaseLexer.SOME || peek() == SqlBaseLexer.ANY) {
+                    throw BAIL;
+                }
+                Tree right = valueExpression();
+                return nc -> nc.child("", "", value).child(operator, "", right);
+            }
+            case SqlBaseLexer.IS: {
+                pos++;
+                boolean not = accept(SqlBaseLexer.NOT);
+                expect(SqlBaseLexer.NULL);
+                return nc -> nc.singleChild("", not ? " IS NOT NULL" : " IS NULL", value);
+            }
+            case SqlBaseLexer.NOT:
+            case SqlBaseLexer.BETWEEN:
+            case SqlBaseLexer.IN:
+            case SqlBaseLexer.LIKE:
+                return negatablePredicate(value);
+            default:
+                return value;
+        }
+    }
+
+    private Tree negatablePredicate(Tree value) {
+        boolean not = accept(SqlBaseLexer.NOT);
+        switch (peek()) {
+            case SqlBaseLexer.BETWEEN: {
+                pos++;
+                Tree lower = valueExpression();
+                expect(SqlBaseLexer.AND);
+                Tree upper = valueExpression();
+                return nc -> {
+                    nc.child("", "", value);
+                    nc.child(not ? "NOT BETWEEN" : "BETWEEN", "", lower);
+                    nc.child("AND", "", upper);
+                };
+            }
+            case SqlBaseLexer.IN: {
+                pos++;
+                if (peek() != LPAREN) {
+                    throw BAIL;
+                }
+                if (startsQuery()) {
+                    pos++;
+                    Tree query = query();
+                    expect(RPAREN);
+                    return nc -> {
+                        nc.child("", "", value);
+                        nc.child(not ? "NOT IN (" : "IN (", " )", query);
+                    };
+                }
+                pos++;
+                Tree list = children(expressions(), "(", ",", " )");
+                expect(RPAREN);
+                return nc -> {
+                    nc.child("", "", value);
+                    nc.child(not ? "NOT IN" : "IN", "", list);
+                };
+            }
+            case SqlBaseLexer.LIKE: {
+                pos++;
+                Tree pattern = valueExpression();
+                Tree escape = accept(SqlBaseLexer.ESCAPE) ? valueExpression() : null;
+                return nc -> {
+                    nc.child("", "", value);
+                    nc.child("LIKE", "", pattern);
+                    if (escape != null) {
+                        nc.child("ESCAPE", "", escape);
+                    }
+                };
+            }
+            default:
+                throw BAIL;
+        }
+    }
+
+    private Tree valueExpression() {
+        Tree left = additive();
+        while (peek() == SqlBaseLexer.CONCAT) {
+            pos++;
+            Tree concatenated = left;
+            Tree right = additive();
+            left = nc -> nc.child("", "", concatenated).child("CONCAT", "", right);
+        }
+        return left;
+    }
+
+    private Tree additive() {
+        Tree left = multiplicative();
+        while (peek() == SqlBaseLexer.PLUS || peek() == SqlBaseLexer.MINUS) {
+            CharSequence operator = take();
+            left = new ArithmeticBinary(left, operator, multiplicative());
+        }
+        return left;
+    }
+
+    private Tree multiplicative() {
+        Tree left = unary();
+        while (peek() == SqlBaseLexer.ASTERISK || peek() == SqlBaseLexer.SLASH || peek() == SqlBaseLexer.PERCENT) {
+            CharSequence operator = take();
+            left = new ArithmeticBinary(left, operator, unary());
+        }
+        return left;
+    }
+
+    private Tree unary() {
+        if (peek() == SqlBaseLexer.PLUS || peek() == SqlBaseLexer.MINUS) {
+            CharSequence operator = take();
+            Tree operand = unary();
+            return nc -> nc.singleChild(operator, "", operand);
+        }
+        return primary();
+    }
+
+    private Tree primary() {
+        Tree tree;
+        switch (peek()) {
+            case SqlBaseLexer.NULL:
+                pos++;
+                tree = leaf("NULL");
+                break;
+            case SqlBaseLexer.INTEGER_VALUE:
+            case SqlBaseLexer.DECIMAL_VALUE:
+            case SqlBaseLexer.DOUBLE_VALUE:
+            case SqlBaseLexer.STRING:
+            case SqlBaseLexer.BINARY_LITERAL:
+            case SqlBaseLexer.TRUE:
+            case SqlBaseLexer.FALSE:
+            case SqlBaseLexer.MYBATIS_PARAMETER:
+                tree = leaf(take());
+                break;
+            case SqlBaseLexer.EXISTS: {
+                pos++;
+                if (peek() != LPAREN || !startsQuery()) {
+                    throw BAIL;
+                }
+                pos++;
+                Tree query = query();
+                expect(RPAREN);
+                tree = nc -> nc.singleChild("EXISTS (", " )", query);
+                break;
+            }
+            case SqlBaseLexer.CASE:
+                tree = caseExpression();
+                break;
+            default:
+                if (peek() == QUESTION) {
+                    pos++;
+                    tree = leaf("?");
+                } else if (peek() == LPAREN) {
+                    tree = parenthesized();
+                } else if (isIdentifier(peek())) {
+                    tree = isFunctionCall() ? functionCall() : identifierReference();
+                } else {
+                    throw BAIL;
+                }
+                break;
+        }
+        while (accept(DOT)) {
+            Tree base = tree;
+            CharSequence postLabel = Labels.concat(".", identifier());
+            tree = nc -> nc.singleChild("", postLabel, base);
+        }
+        return tree;
+    }
+
+    private Tree parenthesized() {
+        if (startsQuery()) {
+            pos++;
+            Tree query = query();
+            expect(RPAREN);
+            return nc -> nc.singleChild("(", " )", query);
+        }
+        pos++;
+        List<Tree> expressions = expressions();
+        expect(RPAREN);
+        if (expressions.size() > 1) {
+            return children(expressions, "(", ",", ")");
+        }
+        Tree expression = expressions.get(0);
+        return nc -> nc.singleChild("(", ")", expression);
+    }
+
+    private Tree identifierReference() {
+        if (peek(1) == SqlBaseLexer.STRING) {
+            // a type constructor
+            throw BAIL;
+        }
+        return leaf(take());
+    }
+
+    private boolean isFunctionCall() {
+        int k = 0;
+        while (isIdentifier(peek(k)) && peek(k + 1) == DOT) {
+            k += 2;
+        }
+        return isIdentifier(peek(k)) && peek(k + 1) == LPAREN;
+    }
+
+    private Tree functionCall() {
+        CharSequence opening = Labels.concat(qualifiedName(), "(");
+        expect(LPAREN);
+        Tree tree;
+        if (accept(SqlBaseLexer.ASTERISK)) {
+            expect(RPAREN);
+            tree = leaf(Labels.concat(opening, "*)"));
+        } else if (accept(RPAREN)) {
+            tree = leaf(Labels.concat(opening, ")"));
+        } else {
+            if (peek() == SqlBaseLexer.DISTINCT || peek() == SqlBaseLexer.ALL) {
+                throw BAIL;
+            }
+            Tree arguments = children(expressions(), opening, ",", ")");
+            expect(RPAREN);
+            tree = nc -> arguments.appendTo(nc);
+        }
+        if (peek() == SqlBaseLexer.FILTER || peek() == SqlBaseLexer.OVER) {
+            throw BAIL;
+        }
+        return tree;
+    }
+
+    private Tree caseExpression() {
+        expect(SqlBaseLexer.CASE);
+        Tree value = peek() == SqlBaseLexer.WHEN ? null : valueExpression();
+        List<Tree> whenClauses = new ArrayList<>();
+        do {
+            expect(SqlBaseLexer.WHEN);
+            Tree condition = booleanExpression();
+            expect(SqlBaseLexer.THEN);
+            Tree result = booleanExpression();
+            whenClauses.add(nc -> nc.child("", "", condition).child("THEN", "", result));
+        } while (peek() == SqlBaseLexer.WHEN);
+        Tree elseExpression = accept(SqlBaseLexer.ELSE) ? booleanExpression() : null;
+        expect(SqlBaseLexer.END);
+        if (value == null) {
+            return nc -> {
+                for (int i = 0; i < whenClauses.size(); i++) {
+                    nc.child(i == 0 ? "CASE WHEN" : "WHEN", "", whenClauses.get(i));
+                }
+                if (elseExpression != null) {
+                    nc.child("ELSE", "", elseExpression);
+                }
+                nc.leaf("END");
+            };
+        }
+        return nc -> nc.singleChild("CASE", " END", nc2 -> {
+            nc2.child("", "", value);
+            children2(whenClauses, "WHEN", "WHEN", "").appendTo(nc2);
+            if (elseExpression != null) {
+                nc2.child("ELSE", "", elseExpression);
+            }
+        });
+    }
+
+    private List<Tree> expressions() {
+        List<Tree> expressions = new ArrayList<>();
+        do {
+            expressions.add(booleanExpression());
+        } while (accept(COMMA));
+        return expressions;
+    }
+
+    /**
+     * Whether the parenthesis at the current position opens a query. Queries nested in more parentheses are
+     * ambiguous with parenthesized expressions, and left to ANTLR.
+     */
+    private boolean startsQuery() {
+        int k = 1;
+        while (peek(k) == LPAREN) {
+            k++;
+        }
+        switch (peek(k)) {
+            case SqlBaseLexer.SELECT:
+            case SqlBaseLexer.VALUES:
+            case SqlBaseLexer.WITH:
+            case SqlBaseLexer.TABLE:
+                if (k > 1) {
+                    throw BAIL;
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The names joined by dots, as {@code getText()} would return them
+     */
+    private CharSequence qualifiedName() {
+        int first = pos;
+        CharSequence name = identifier();
+        boolean contiguous = true;
+        while (peek() == DOT && isIdentifier(peek(1))) {
+            contiguous &= ends[pos - 1] == starts[pos] && ends[pos] == starts[pos + 1];
+            pos++;
+            name = Labels.concat(name, ".", take());
+        }
+        return contiguous ? Labels.slice(sql, starts[first], ends[pos - 1]) : name;
+    }
+
+    private CharSequence identifier() {
+        if (!isIdentifier(peek())) {
+            throw BAIL;
+        }
+        return take();
+    }
+
+    private static boolean isIdentifier(int type) {
+        return type == SqlBaseLexer.IDENTIFIER
+                || type == SqlBaseLexer.QUOTED_IDENTIFIER
+                || type == SqlBaseLexer.BACKQUOTED_IDENTIFIER
+                || type == SqlBaseLexer.DIGIT_IDENTIFIER;
+    }
+
+    private int peek() {
+        return types[pos];
+    }
+
+    private int peek(int k) {
+        return pos + k < count ? types[pos + k] : Token.EOF;
+    }
+
+    private CharSequence take() {
+        CharSequence text = Labels.slice(sql, starts[pos], ends[pos]);
+        pos++;
+        return text;
+    }
+
+    private boolean accept(int type) {
+        if (types[pos] != type) {
+            return false;
+        }
+        pos++;
+        return true;
+    }
+
+    private void expect(int type) {
+        if (!accept(type)) {
+            throw BAIL;
+        }
+    }
+
+    private static Tree leaf(CharSequence text) {
+        return nc -> nc.leaf(text);
+    }
+
+    /**
+     * The same as {@code StatementLayout2.toChildren}.
+     */
+    private static Tree children(List<Tree> trees, CharSequence opening, CharSequence joiner, CharSequence closing) {
+        if (trees.isEmpty()) {
+            return nc -> {
+            };
+        } else if (trees.size() == 1) {
+            Tree tree = trees.get(0);
+            return nc -> nc.singleChild(opening, closing, tree);
+        } else {
+            return nc -> {
+                for (int i = 0; i < trees.size(); i++) {
+                    nc.child(i == 0 ? opening : "",
+                            i == trees.size() - 1 ? closing : joiner,
+                            trees.get(i));
+                }
+            };
+        }
+    }
+
+    /**
+     * The same as {@code StatementLayout2.toChildren2}.
+     */
+    private static Tree children2(List<Tree> trees, CharSequence opening, CharSequence joiner, CharSequence closing) {
+        if (trees.isEmpty()) {
+            return nc -> {
+            };
+        } else if (trees.size() == 1) {
+            Tree tree = trees.get(0);
+            return nc -> nc.singleChild("", "", tree);
+        } else {
+            return nc -> {
+                for (int i = 0; i < trees.size(); i++) {
+                    nc.child(i == 0 ? opening : joiner, closing, trees.get(i));
+                }
+            };
+        }
+    }
+
+    private static int literalType(String literalName) {
+        for (int type = 0; type <= SqlBaseLexer.VOCABULARY.getMaxTokenType(); type++) {
+            if (literalName.equals(SqlBaseLexer.VOCABULARY.getLiteralName(type))) {
+                return type;
+            }
+        }
+        throw new IllegalStateException("Unknown token " + literalName);
+    }
+
+    /**
+     * A chain of AND / OR operators, laid out as {@code StatementLayout2.visitLogicalBinary} does.
+     */
+    private static final class LogicalBinary implements Tree {
+        private final Tree left;
+        private final CharSequence operator;
+        private final Tree right;
+
+        private LogicalBinary(Tree left, CharSequence operator, Tree right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public void accept(Visitor visitor) {
+            append(null, visitor);
+        }
+
+        private void append(CharSequence prefix, Visitor nc) {
+            List<LogicalBinary> chain = new ArrayList<>();
+            Tree left = this;
+            while (left instanceof LogicalBinary) {
+                chain.add((LogicalBinary) left);
+                left = ((LogicalBinary) left).left;
+            }
+            nc.child(prefix == null ? "" : Labels.concat(prefix, " "), "", left);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                LogicalBinary link = chain.get(i);
+                if (link.right instanceof LogicalBinary) {
+                    ((LogicalBinary) link.right).append(link.operator, nc);
+                } else {
+                    nc.child(link.operator, "", link.right);
+                }
+            }
+        }
+    }
+
+    /**
+     * A chain of arithmetic operators, laid out as {@code StatementLayout2.visitArithmeticBinary} does.
+     */
+    private static final class ArithmeticBinary implements Tree {
+        private final Tree left;
+        private final CharSequence operator;
+        private final Tree right;
+
+        private ArithmeticBinary(Tree left, CharSequence operator, Tree right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public void accept(Visitor visitor) {
+            List<ArithmeticBinary> chain = new ArrayList<>();
+            Tree left = this;
+            while (left instanceof ArithmeticBinary) {
+                chain.add((ArithmeticBinary) left);
+                left = ((ArithmeticBinary) left).left;
+            }
+            left.appendTo(visitor);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                visitor.child(chain.get(i).operator, "", chain.get(i).right);
+            }
+        }
+    }
+
+    private static final class Bail extends RuntimeException {
+        private Bail() {
+            super(null, null, false, false);
+        }
+    }
+}
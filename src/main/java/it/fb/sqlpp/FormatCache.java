@@ -0,0 +1,161 @@
+package it.fb.sqlpp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Caches the results of {@code StatementLayout2.format}, for applications formatting the same statements over and
+ * over. The cache is bounded by the number of characters it retains, counting both the statements and their
+ * formatted text, and evicts the least recently used entries first. It is safe for concurrent use.
+ * <p>
+ * The formatted text can be kept compressed, trading some CPU on every hit for memory. Statements failing to parse
+ * are not cached.
+ */
+public final class FormatCache {
+
+    private final Cache<Key, Object> cache;
+    private final boolean compressed;
+
+    /**
+     * @param maxRetainedChars The maximum number of characters retained by the cache
+     */
+    public FormatCache(long maxRetainedChars) {
+        this(maxRetainedChars, false);
+    }
+
+    /**
+     * @param maxRetainedChars The maximum number of characters retained by the cache; two bytes of compressed text
+     *                         count as one character
+     * @param compressed       Whether to keep the formatted text compressed
+     */
+    public FormatCache(long maxRetainedChars, boolean compressed) {
+        this.compressed = compressed;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxRetainedChars)
+                .weigher(FormatCache::weigh)
+                .recordStats()
+                .build();
+    }
+
+    public String format(int lineWidth, int indentWidth, String statement) {
+        Key key = new Key(statement, lineWidth, indentWidth);
+        Object value;
+        try {
+            value = cache.get(key, () -> {
+                String formatted = StatementLayout2.format(lineWidth, indentWidth, statement);
+                return compressed ? compress(formatted) : formatted;
+            });
+        } catch (UncheckedExecutionException | ExecutionError ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw ex;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        return value instanceof String ? (String) value : decompress((byte[]) value);
+    }
+
+    /**
+     * @return The hit, miss and eviction counters of the cache
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return The approximate number of entries in the cache
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static int weigh(Key key, Object value) {
+        int valueChars = value instanceof String ? ((String) value).length() : (((byte[]) value).length + 1) / 2;
+        return key.statement.length() + valueChars;
+    }
+
+    private static byte[] compress(String text) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() / 2 + 16);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String decompress(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated compressed text");
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Key {
+        private final String statement;
+        private final int lineWidth;
+        private final int indentWidth;
+
+        private Key(String statement, int lineWidth, int indentWidth) {
+            this.statement = Objects.requireNonNull(statement);
+            this.lineWidth = lineWidth;
+            this.indentWidth = indentWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return lineWidth == key.lineWidth && indentWidth == key.indentWidth && statement.equals(key.statement);
+        }
+
+        @Override
+        public int hashCode() {
+            return (statement.hashCode() * 31 + lineWidth) * 31 + indentWidth;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package it.fb.sqlpp;
+
+/**
+ * Emits the Java Flight Recorder events of the formatters. The events are defined in the optional {@code jfr}
+ * source set, which needs the {@code jdk.jfr} API: when its classes are missing, or the JVM has no Flight Recorder,
+ * no events are emitted, at the cost of a call returning null.
+ * <p>
+ * Only used by the formatters themselves; applications record the events by starting a recording, as with any
+ * other JFR event.
+ */
+public abstract class FormatEvents {
+
+    private static final String IMPLEMENTATION = "it.fb.sqlpp.jfr.JfrFormatEvents";
+    private static final FormatEvents INSTANCE = load();
+
+    protected FormatEvents() {
+    }
+
+    public static FormatEvents get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The event of a statement about to be formatted, to be passed to {@code endStatement}; or null, if
+     * the event is not being recorded
+     */
+    public abstract Object beginStatement();
+
+    public abstract void endStatement(Object event, FormatMetrics metrics);
+
+    /**
+     * @return The event of a mapper file about to be formatted, to be passed to {@code endMapper}; or null, if the
+     * event is not being recorded
+     */
+    public abstract Object beginMapper();
+
+    /**
+     * @param statements The number of statements found in the mapper file
+     * @param failures   The number of them which could not be formatted, and were left as they were
+     */
+    public abstract void endMapper(Object event, int statements, int failures);
+
+    private static FormatEvents load() {
+        try {
+            return Class.forName(IMPLEMENTATION).asSubclass(FormatEvents.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return new FormatEvents() {
+                @Override
+                public Object beginStatement() {
+                    return null;
+                }
+
+                @Override
+                public void endStatement(Object event, FormatMetrics metrics) {
+                }
+
+                @Override
+                public Object beginMapper() {
+                    return null;
+                }
+
+                @Override
+                public void endMapper(Object event, int statements, int failures) {
+                }
+            };
+        }
+    }
+}
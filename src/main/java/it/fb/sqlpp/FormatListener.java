@@ -0,0 +1,18 @@
+package it.fb.sqlpp;
+
+/**
+ * Receives the metrics of every statement formatted by {@code StatementLayout2}, as set with
+ * {@link StatementLayout2#setFormatListener(FormatListener)}. When no listener is set the metrics are not even
+ * collected.
+ * <p>
+ * The listener is called on the thread which formatted the statement, right after formatting it, so it must be
+ * thread safe and should return quickly: a typical implementation feeds the numbers into a metrics system.
+ */
+@FunctionalInterface
+public interface FormatListener {
+
+    /**
+     * Called after a statement has been formatted successfully.
+     */
+    void formatted(FormatMetrics metrics);
+}
@@ -0,0 +1,127 @@
+package it.fb.sqlpp;
+
+/**
+ * The time spent in each phase of formatting one statement, with a few counters describing the statement. Times are
+ * in nanoseconds; the phases which did not run took no time.
+ */
+public final class FormatMetrics {
+
+    /**
+     * The parser which produced the tree of the statement.
+     */
+    public enum Parser {
+        /**
+         * The hand-written parser for the most common statements.
+         */
+        FAST_PATH,
+        /**
+         * ANTLR, with SLL prediction.
+         */
+        SLL,
+        /**
+         * ANTLR with full LL prediction, after SLL prediction failed.
+         */
+        LL
+    }
+
+    private final String statement;
+    Parser parser;
+    long lexingNanos;
+    long fastPathNanos;
+    long sllNanos;
+    long llNanos;
+    long toTreeNanos;
+    long layoutNanos;
+    int tokenCount;
+    int maxDepth;
+    int brokenSubtrees;
+    long outputLength;
+
+    FormatMetrics(String statement) {
+        this.statement = statement;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    public Parser getParser() {
+        return parser;
+    }
+
+    /**
+     * @return The time spent splitting the statement into tokens, once for every parser which was tried
+     */
+    public long getLexingNanos() {
+        return lexingNanos;
+    }
+
+    /**
+     * @return The time spent in the hand-written parser, even if it gave up and ANTLR parsed the statement
+     */
+    public long getFastPathNanos() {
+        return fastPathNanos;
+    }
+
+    public long getSllNanos() {
+        return sllNanos;
+    }
+
+    /**
+     * @return The time spent parsing the statement again with full LL prediction, zero if SLL prediction sufficed
+     */
+    public long getLlNanos() {
+        return llNanos;
+    }
+
+    /**
+     * @return The time spent building the tree to lay out
+     */
+    public long getToTreeNanos() {
+        return toTreeNanos;
+    }
+
+    public long getLayoutNanos() {
+        return layoutNanos;
+    }
+
+    public long getTotalNanos() {
+        return lexingNanos + fastPathNanos + sllNanos + llNanos + toTreeNanos + layoutNanos;
+    }
+
+    /**
+     * @return The number of tokens of the statement, not counting whitespace and comments
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * @return The deepest nesting of subtrees within the tree of the statement
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return The number of subtrees which did not fit on their line, and were laid out on separate lines
+     */
+    public int getBrokenSubtrees() {
+        return brokenSubtrees;
+    }
+
+    public int getInputLength() {
+        return statement.length();
+    }
+
+    public long getOutputLength() {
+        return outputLength;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FormatMetrics{parser=%s, lexing=%d, fastPath=%d, sll=%d, ll=%d, toTree=%d, layout=%d, tokens=%d, maxDepth=%d, broken=%d, input=%d, output=%d}",
+                parser, lexingNanos, fastPathNanos, sllNanos, llNanos, toTreeNanos, layoutNanos,
+                tokenCount, maxDepth, brokenSubtrees, getInputLength(), outputLength);
+    }
+}
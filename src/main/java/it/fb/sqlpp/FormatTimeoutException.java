@@ -0,0 +1,12 @@
+package it.fb.sqlpp;
+
+/**
+ * Thrown when formatting a statement takes longer than the time allowed. It is not a {@code ParseException}: the
+ * statement may well be valid, so callers falling back to the original text on syntax errors should decide on their
+ * own what to do with a timeout.
+ */
+public class FormatTimeoutException extends RuntimeException {
+    public FormatTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,194 @@
+package it.fb.sqlpp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Formats statements asynchronously, for servers formatting statements on behalf of many request threads. At most
+ * a fixed number of statements can be pending, queued or being formatted: beyond that, {@code submit} rejects new
+ * statements right away, while {@code submit} with a timeout waits for a slot to free up, pushing back on the
+ * callers.
+ * <p>
+ * Thread safety: the service itself can be shared by any number of threads. It only relies on
+ * {@code StatementLayout2.format} being safe to call concurrently, which holds since the visitor building the
+ * trees is stateless, every thread parses with its own lexer and parsers, and the only state shared between the
+ * threads, the prediction DFA of ANTLR and the parser statistics, is updated atomically. Since the lexer and the
+ * parsers are kept by each thread, the service is most efficient on a pool of long lived threads; with a thread
+ * per statement, as with virtual threads, each statement pays for creating them.
+ */
+public final class FormattingService implements AutoCloseable {
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sqlpp-format-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Semaphore permits;
+    private final int maxPending;
+    private volatile boolean closed;
+
+    /**
+     * Formats the statements on the given executor, which stays owned by the caller: closing the service does not
+     * shut it down.
+     *
+     * @param executor   The executor formatting the statements
+     * @param maxPending The maximum number of statements queued or being formatted at any time
+     */
+    public FormattingService(Executor executor, int maxPending) {
+        this(executor, null, maxPending);
+    }
+
+    private FormattingService(Executor executor, ExecutorService ownedExecutor, int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        this.executor = executor;
+        this.ownedExecutor = ownedExecutor;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    /**
+     * Formats the statements on a pool of daemon threads, shut down when the service is closed.
+     *
+     * @param threads    The number of threads, usually the number of cores
+     * @param maxPending The maximum number of statements queued or being formatted at any time
+     */
+    public static FormattingService withThreads(int threads, int maxPending) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+        return new FormattingService(pool, pool, maxPending);
+    }
+
+    /**
+     * Formats every statement on a new virtual thread, shut down when the service is closed.
+     *
+     * @param maxPending The maximum number of statements being formatted at any time
+     * @throws UnsupportedOperationException If the JVM does not support virtual threads
+     */
+    public static FormattingService withVirtualThreads(int maxPending) {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", ex);
+        }
+        return new FormattingService(executor, executor, maxPending);
+    }
+
+    /**
+     * @return Whether {@link #withVirtualThreads} can be used on this JVM
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Submits a statement for formatting, unless too many statements are already pending.
+     *
+     * @return A future completed with the formatted statement, or with the exception thrown by
+     * {@code StatementLayout2.format}
+     * @throws RejectedExecutionException If the maximum number of pending statements has been reached, or the
+     *                                    service has been closed
+     */
+    public CompletableFuture<String> submit(int lineWidth, int indentWidth, String statement) {
+        checkOpen();
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many statements pending: " + maxPending);
+        }
+        return execute(lineWidth, indentWidth, statement);
+    }
+
+    /**
+     * Submits a statement for formatting, waiting up to the given time for the number of pending statements to
+     * drop below the maximum.
+     *
+     * @return A future completed with the formatted statement, or with the exception thrown by
+     * {@code StatementLayout2.format}
+     * @throws RejectedExecutionException If the maximum number of pending statements was still reached after the
+     *                                    timeout, or the service has been closed
+     * @throws InterruptedException       If the thread was interrupted while waiting
+     */
+    public CompletableFuture<String> submit(int lineWidth, int indentWidth, String statement, long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        if (!permits.tryAcquire(timeout, unit)) {
+            throw new RejectedExecutionException("Too many statements pending: " + maxPending);
+        }
+        return execute(lineWidth, indentWidth, statement);
+    }
+
+    /**
+     * @return The number of statements queued or being formatted
+     */
+    public int pending() {
+        return maxPending - permits.availablePermits();
+    }
+
+    /**
+     * Shuts down the threads created by the service, after the statements already submitted have been formatted.
+     * An executor given by the caller is left running, but the service rejects any further statement.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new RejectedExecutionException("The service has been closed");
+        }
+    }
+
+    /**
+     * The permit is released before completing the future, so that a caller reacting to the completion can submit
+     * the next statement right away.
+     */
+    private CompletableFuture<String> execute(int lineWidth, int indentWidth, String statement) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                String formatted = null;
+                Throwable failure = null;
+                try {
+                    formatted = StatementLayout2.format(lineWidth, indentWidth, statement);
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    permits.release();
+                }
+                if (failure == null) {
+                    result.complete(formatted);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            });
+        } catch (Throwable t) {
+            // Not only RejectedExecutionException: the statement was not queued, whatever the executor threw
+            permits.release();
+            throw t;
+        }
+        return result;
+    }
+}
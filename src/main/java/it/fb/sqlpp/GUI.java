@@ -1,13 +1,8 @@
 package it.fb.sqlpp;
 
-import it.fb.sqlpp.it.fb.sqlpp.mybatis.MybatisFormatter;
+import it.fb.sqlpp.it.fb.sqlpp.mybatis.MybatisBatchFormatter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -17,9 +12,6 @@ import javafx.scene.layout.*;
 import javafx.scene.text.Font;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.stream.XMLStreamException;
-import org.xml.sax.SAXException;
 
 public class GUI extends Application {
 
@@ -105,14 +97,13 @@ public class GUI extends Application {
             return;
         }
         try {
-            int modified = Files.walk(result.toPath(), Integer.MAX_VALUE)
-                    .filter(MybatisFormatter::isMapperFile)
-                    .mapToInt(this::formatMybatis)
-                    .sum();
+            MybatisBatchFormatter.Result summary = new MybatisBatchFormatter(
+                    Integer.parseInt(columnsField.getText()), Integer.parseInt(spacingField.getText()))
+                    .formatDirectory(result.toPath());
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
             alert.setTitle("Completed");
             alert.setHeaderText("Mybatis scanning completed");
-            alert.setContentText(String.format("Formatted %d files", modified));
+            alert.setContentText(summary.toString());
             alert.showAndWait();
         } catch (IOException | RuntimeException ex) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
@@ -130,23 +121,4 @@ public class GUI extends Application {
             alert.showAndWait();
         }
     }
-
-    private int formatMybatis(Path mapperPath) {
-        try (InputStream in = Files.newInputStream(mapperPath)) {
-            Path tmpOutputPath = Files.createTempFile("tempMapper", "xml");
-            try (OutputStream out = Files.newOutputStream(tmpOutputPath)) {
-                MybatisFormatter.format(in, out, Integer.parseInt(columnsField.getText()),
-                        Integer.parseInt(spacingField.getText()));
-            } catch (ParserConfigurationException | XMLStreamException | SAXException e) {
-                Files.delete(tmpOutputPath);
-                return 0;
-            } catch (RuntimeException ex) {
-                throw new IllegalStateException("Error reading " + mapperPath, ex);
-            }
-            Files.move(tmpOutputPath, mapperPath, StandardCopyOption.REPLACE_EXISTING);
-            return 1;
-        } catch (IOException ignored) {
-            return 0;
-        }
-    }
 }
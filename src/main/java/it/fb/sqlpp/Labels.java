@@ -0,0 +1,207 @@
+package it.fb.sqlpp;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Labels of a {@code Tree} which are not copied out of the statement they come from: slices of the statement text,
+ * and concatenations of other labels. Their characters are copied only once, when they are appended to the output.
+ * Constant labels, such as keywords, are plain (interned) strings.
+ */
+final class Labels {
+
+    private Labels() {
+    }
+
+    static boolean isEmpty(CharSequence label) {
+        return label == null || label.length() == 0;
+    }
+
+    /**
+     * @return The characters of {@code source} from {@code start} (inclusive) to {@code end} (exclusive)
+     */
+    static CharSequence slice(CharSequence source, int start, int end) {
+        if (start == end) {
+            return "";
+        } else if (start == 0 && end == source.length()) {
+            return source;
+        }
+        return new Slice(source, start, end);
+    }
+
+    static CharSequence concat(CharSequence first, CharSequence second) {
+        if (isEmpty(first)) {
+            return second == null ? "" : second;
+        } else if (isEmpty(second)) {
+            return first;
+        }
+        return new Concat(first, second);
+    }
+
+    static CharSequence concat(CharSequence first, CharSequence second, CharSequence third) {
+        return concat(concat(first, second), third);
+    }
+
+    /**
+     * @return The text of the token, as a slice of the statement when it has been lexed from a
+     * {@code CaseInsensitiveCharStream}
+     */
+    static CharSequence of(Token token) {
+        CharStream input = token.getInputStream();
+        if (input instanceof CaseInsensitiveCharStream && token.getStartIndex() >= 0) {
+            return ((CaseInsensitiveCharStream) input).slice(token.getStartIndex(), token.getStopIndex() + 1);
+        }
+        return token.getText();
+    }
+
+    static CharSequence of(TerminalNode node) {
+        return of(node.getSymbol());
+    }
+
+    /**
+     * @return The same text as {@code ctx.getText()}, which is the concatenation of the texts of its tokens. When
+     * there are no comments or whitespace between the tokens, this is a slice of the statement.
+     */
+    static CharSequence of(ParserRuleContext ctx) {
+        Token start = ctx.getStart();
+        Token stop = ctx.getStop();
+        if (ctx.getChildCount() == 0 || start == null || stop == null) {
+            return ctx.getText();
+        } else if (start == stop) {
+            return of(start);
+        }
+        CharStream input = start.getInputStream();
+        if (input instanceof CaseInsensitiveCharStream
+                && stop.getTokenIndex() - start.getTokenIndex() + 1 == countTokens(ctx)) {
+            // hidden tokens also have an index: there are none between start and stop
+            return ((CaseInsensitiveCharStream) input).slice(start.getStartIndex(), stop.getStopIndex() + 1);
+        }
+        return ctx.getText();
+    }
+
+    private static int countTokens(ParseTree tree) {
+        if (tree instanceof TerminalNode) {
+            return 1;
+        }
+        int count = 0;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            count += countTokens(tree.getChild(i));
+        }
+        return count;
+    }
+
+    /**
+     * Appends a label to a {@code StringBuilder}, copying the characters of slices straight from their source.
+     */
+    static void appendTo(CharSequence label, StringBuilder sb) {
+        if (label instanceof Slice) {
+            Slice slice = (Slice) label;
+            sb.append(slice.source, slice.start, slice.end);
+        } else if (label instanceof Concat) {
+            appendTo(((Concat) label).first, sb);
+            appendTo(((Concat) label).second, sb);
+        } else {
+            sb.append(label);
+        }
+    }
+
+    /**
+     * Appends a label to an {@code Appendable}, writing the characters of slices straight from their source.
+     */
+    static void appendTo(CharSequence label, Appendable output) throws IOException {
+        if (output instanceof StringBuilder) {
+            appendTo(label, (StringBuilder) output);
+        } else if (label instanceof Slice) {
+            Slice slice = (Slice) label;
+            if (output instanceof Writer && slice.source instanceof String) {
+                ((Writer) output).write((String) slice.source, slice.start, slice.end - slice.start);
+            } else {
+                output.append(slice.source, slice.start, slice.end);
+            }
+        } else if (label instanceof Concat) {
+            appendTo(((Concat) label).first, output);
+            appendTo(((Concat) label).second, output);
+        } else {
+            output.append(label);
+        }
+    }
+
+    private static final class Slice implements CharSequence {
+        private final CharSequence source;
+        private final int start;
+        private final int end;
+
+        private Slice(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return source.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException(start + ", " + end);
+            }
+            return slice(source, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            return source.subSequence(start, end).toString();
+        }
+    }
+
+    private static final class Concat implements CharSequence {
+        private final CharSequence first;
+        private final CharSequence second;
+        private final int length;
+
+        private Concat(CharSequence first, CharSequence second) {
+            this.first = first;
+            this.second = second;
+            this.length = first.length() + second.length();
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int firstLength = first.length();
+            return index < firstLength ? first.charAt(index) : second.charAt(index - firstLength);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length);
+            appendTo(this, sb);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The prediction DFA and context cache shared by all the parsers. They are filled lazily while parsing and never
+ * shrink: to bound the memory they use, a budget of DFA states can be set, past which the cache is cleared.
+ * <p>
+ * Clearing replaces the cache with an empty one: the parsers switch to it when they start parsing the next statement,
+ * and have to warm up again.
+ */
+public final class ParserCache {
+
+    private static final int DFA_STATE_BYTES = 64;
+    private static final int CONFIG_BYTES = 40;
+    private static final int CONTEXT_BYTES = 48;
+
+    private final ATN atn;
+    private volatile Generation current;
+    private volatile long maxDfaStates = Long.MAX_VALUE;
+    private final AtomicLong clears = new AtomicLong();
+
+    ParserCache(ATN atn) {
+        this.atn = atn;
+        this.current = new Generation(atn);
+    }
+
+    /**
+     * @return The number of states of the prediction DFA
+     */
+    public long getDfaStateCount() {
+        return current.dfaStates.get();
+    }
+
+    /**
+     * @return The number of entries of the prediction context cache
+     */
+    public int getPredictionContextCount() {
+        return current.contextCache.size();
+    }
+
+    /**
+     * Estimates the memory retained by the cache, walking the whole DFA: it is meant to be called for monitoring, not
+     * on every parse.
+     *
+     * @return The approximate number of bytes retained by the cache
+     */
+    public long getApproximateRetainedBytes() {
+        Generation generation = current;
+        long bytes = (long) generation.contextCache.size() * CONTEXT_BYTES;
+        for (DFA dfa : generation.decisionToDFA) {
+            synchronized (dfa.states) {
+                for (DFAState state : dfa.states.keySet()) {
+                    bytes += DFA_STATE_BYTES;
+                    if (state.edges != null) {
+                        bytes += 16 + 4L * state.edges.length;
+                    }
+                    if (state.configs != null) {
+                        bytes += (long) state.configs.size() * CONFIG_BYTES;
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The number of times the cache has been cleared
+     */
+    public long getClearCount() {
+        return clears.get();
+    }
+
+    public long getMaxDfaStates() {
+        return maxDfaStates;
+    }
+
+    /**
+     * Sets the budget of DFA states: when a parse starts with more states than these, the cache is cleared.
+     *
+     * @param maxDfaStates The maximum number of DFA states, or {@code Long.MAX_VALUE} for an unbounded cache
+     */
+    public void setMaxDfaStates(long maxDfaStates) {
+        if (maxDfaStates <= 0) {
+            throw new IllegalArgumentException("The maximum number of DFA states must be positive");
+        }
+        this.maxDfaStates = maxDfaStates;
+    }
+
+    /**
+     * Replaces the cache with an empty one.
+     */
+    public void clear() {
+        current = new Generation(atn);
+        clears.incrementAndGet();
+    }
+
+    /**
+     * Called when a parse starts: clears the cache if over budget.
+     *
+     * @return The cache to use for the parse
+     */
+    Generation acquire() {
+        Generation generation = current;
+        if (generation.dfaStates.get() > maxDfaStates) {
+            synchronized (this) {
+                if (current == generation) {
+                    clear();
+                }
+                generation = current;
+            }
+        }
+        return generation;
+    }
+
+    static final class Generation {
+        final DFA[] decisionToDFA;
+        final PredictionContextCache contextCache = new PredictionContextCache();
+        final AtomicLong dfaStates = new AtomicLong();
+
+        private Generation(ATN atn) {
+            decisionToDFA = new DFA[atn.getNumberOfDecisions()];
+            for (int i = 0; i < decisionToDFA.length; i++) {
+                decisionToDFA[i] = new DFA(atn.getDecisionState(i), i);
+            }
+        }
+    }
+
+    static ParserCache forSqlBaseParser() {
+        return new ParserCache(SqlBaseParser._ATN);
+    }
+}
@@ -0,0 +1,67 @@
+package it.fb.sqlpp;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+/**
+ * A {@code ParserATNSimulator} using a {@code ParserCache} generation, and counting the states it adds to its DFA.
+ * Every parser has its own simulator, so the counter is not synchronized.
+ * <p>
+ * The simulator also checks the deadline of the statement being parsed at every prediction step, since a single
+ * prediction can look ahead for many tokens.
+ */
+final class ParserSimulator extends ParserATNSimulator {
+
+    private final ParserCache.Generation generation;
+    private long addedStates = 0;
+    private Deadline deadline = Deadline.NONE;
+
+    ParserSimulator(Parser parser, ParserCache.Generation generation) {
+        super(parser, parser.getATN(), generation.decisionToDFA, generation.contextCache);
+        this.generation = generation;
+    }
+
+    ParserCache.Generation getGeneration() {
+        return generation;
+    }
+
+    void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    @Override
+    protected ATNConfigSet computeReachSet(ATNConfigSet closure, int t, boolean fullCtx) {
+        deadline.check();
+        return super.computeReachSet(closure, t, fullCtx);
+    }
+
+    @Override
+    protected DFAState addDFAState(DFA dfa, DFAState state) {
+        DFAState added = super.addDFAState(dfa, state);
+        if (added == state && state != ERROR) {
+            addedStates++;
+            generation.dfaStates.incrementAndGet();
+        }
+        return added;
+    }
+
+    /**
+     * Drops the references to the input and the context of the last prediction, which ANTLR keeps after parsing.
+     */
+    void release() {
+        _input = null;
+        _outerContext = null;
+    }
+
+    /**
+     * @return The number of states added since the last call
+     */
+    long takeAddedStates() {
+        long ret = addedStates;
+        addedStates = 0;
+        return ret;
+    }
+}
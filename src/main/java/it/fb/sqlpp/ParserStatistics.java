@@ -0,0 +1,90 @@
+package it.fb.sqlpp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how statements were parsed. The most common statements are parsed by a hand-written parser, without going
+ * through ANTLR at all. For the other statements, parsing is first attempted with the faster SLL prediction mode, which bails out
+ * at the first error; only if that fails the statement is parsed again with full LL prediction, which is also the
+ * stage reporting syntax errors.
+ */
+public final class ParserStatistics {
+
+    private final LongAdder fastParses = new LongAdder();
+    private final LongAdder sllParses = new LongAdder();
+    private final LongAdder llParses = new LongAdder();
+    private final LongAdder failedParses = new LongAdder();
+    private final LongAdder timedOutParses = new LongAdder();
+
+    ParserStatistics() {
+    }
+
+    /**
+     * @return The number of statements parsed by the hand-written parser
+     */
+    public long getFastParses() {
+        return fastParses.sum();
+    }
+
+    /**
+     * @return The number of statements successfully parsed by the SLL stage
+     */
+    public long getSllParses() {
+        return sllParses.sum();
+    }
+
+    /**
+     * @return The number of statements the SLL stage could not parse, but the LL stage could
+     */
+    public long getLlParses() {
+        return llParses.sum();
+    }
+
+    /**
+     * @return The number of statements which could not be parsed
+     */
+    public long getFailedParses() {
+        return failedParses.sum();
+    }
+
+    /**
+     * @return The number of statements whose parsing was given up, since it took longer than the time allowed
+     */
+    public long getTimedOutParses() {
+        return timedOutParses.sum();
+    }
+
+    public void reset() {
+        fastParses.reset();
+        sllParses.reset();
+        llParses.reset();
+        failedParses.reset();
+        timedOutParses.reset();
+    }
+
+    void fastParsed() {
+        fastParses.increment();
+    }
+
+    void sllParsed() {
+        sllParses.increment();
+    }
+
+    void llParsed() {
+        llParses.increment();
+    }
+
+    void parseFailed() {
+        failedParses.increment();
+    }
+
+    void parseTimedOut() {
+        timedOutParses.increment();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ParserStatistics{fast=%d, sll=%d, ll=%d, failed=%d, timedOut=%d}",
+                getFastParses(), getSllParses(), getLlParses(), getFailedParses(), getTimedOutParses());
+    }
+}
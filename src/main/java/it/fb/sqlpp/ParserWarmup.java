@@ -0,0 +1,235 @@
+package it.fb.sqlpp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Warms up the parser. The prediction DFA shared by all the parsers starts empty and is filled lazily, which makes
+ * the first statements several times slower to parse: parsing a corpus of representative statements at startup
+ * moves this cost out of the first requests.
+ * <p>
+ * The DFA itself cannot be persisted, but the statements which made it grow can: they are recorded while warming up,
+ * and while parsing once recording has been turned on with {@link #setRecording}, and can be saved to a snapshot
+ * file, to warm up the parser again with {@link #loadSnapshot} on the next start. Statements are recorded by their
+ * {@link StatementFingerprint} text, with the literals replaced by placeholders, so that the values in the
+ * statements are neither kept in memory nor written to the snapshot. The recorded text is bounded in total length,
+ * and forgotten when the prediction DFA is cleared, since the statements which made the old DFA grow may not be the
+ * ones which make the new one grow.
+ */
+public final class ParserWarmup {
+
+    private static final int SNAPSHOT_MAGIC = 0x53514C57;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_LEARNED_CHARS = 1 << 20;
+    /**
+     * The most a snapshot can hold, with every recorded char taking the most bytes in UTF-8; a snapshot claiming more
+     * is damaged.
+     */
+    private static final int MAX_SNAPSHOT_BYTES = 3 * MAX_LEARNED_CHARS;
+
+    private static final Set<String> LEARNED_STATEMENTS = new LinkedHashSet<>();
+    private static int learnedChars = 0;
+    private static long learnedClearCount = 0;
+    /**
+     * Overrides {@link #recording} in the current thread: true while warming up, false while canonicalizing a
+     * learned statement, which parses it again.
+     */
+    private static final ThreadLocal<Boolean> THREAD_RECORDING = new ThreadLocal<>();
+    private static volatile boolean recording = false;
+    private static volatile boolean warm = false;
+
+    private ParserWarmup() {
+    }
+
+    /**
+     * Parses all the statements, ignoring the ones with syntax errors.
+     *
+     * @param statements The statements to parse
+     * @return The number of statements successfully parsed
+     */
+    public static int warmUp(Iterable<String> statements) {
+        int parsed = 0;
+        Boolean previous = THREAD_RECORDING.get();
+        THREAD_RECORDING.set(Boolean.TRUE);
+        try {
+            for (String statement : statements) {
+                try {
+                    StatementLayout2.invokeParser(statement);
+                    parsed++;
+                } catch (RuntimeException ignored) {
+                    // Only the predictions are interesting here
+                }
+            }
+        } finally {
+            restoreThreadRecording(previous);
+        }
+        warm = true;
+        return parsed;
+    }
+
+    /**
+     * Warms up the parser in background.
+     *
+     * @param statements The statements to parse
+     * @param executor   The executor running the warm up
+     * @return A future completed, with the number of statements successfully parsed, when the parser is warm
+     */
+    public static CompletableFuture<Integer> warmUpAsync(Iterable<String> statements, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> warmUp(statements), executor);
+    }
+
+    /**
+     * Warms up the parser in a background daemon thread.
+     *
+     * @param statements The statements to parse
+     * @return A future completed, with the number of statements successfully parsed, when the parser is warm
+     */
+    public static CompletableFuture<Integer> warmUpAsync(Iterable<String> statements) {
+        return warmUpAsync(statements, command -> {
+            Thread thread = new Thread(command, "sqlpp-parser-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * @return Whether a warm up has been completed
+     */
+    public static boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Turns on or off recording the statements which make the prediction DFA grow while formatting, to be saved with
+     * {@link #saveSnapshot}. Recording is off by default; the statements parsed by a warm up are always recorded.
+     */
+    public static void setRecording(boolean recording) {
+        ParserWarmup.recording = recording;
+    }
+
+    /**
+     * @return Whether the statements making the prediction DFA grow are being recorded in the current thread
+     */
+    public static boolean isRecording() {
+        Boolean threadRecording = THREAD_RECORDING.get();
+        return threadRecording != null ? threadRecording : recording;
+    }
+
+    /**
+     * Saves the canonical text of the statements which made the prediction DFA grow since it was last cleared.
+     *
+     * @param file The snapshot file to write
+     */
+    public static void saveSnapshot(Path file) throws IOException {
+        List<String> statements = learnedStatements();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(statements.size());
+            for (String statement : statements) {
+                byte[] bytes = statement.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the statements saved by {@link #saveSnapshot}, to be passed to {@link #warmUp} or {@link #warmUpAsync}.
+     *
+     * @param file The snapshot file to read
+     * @return The statements in the snapshot
+     * @throws IOException If the file cannot be read, or is not a snapshot or a damaged one
+     */
+    public static List<String> loadSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a parser warm up snapshot: " + file);
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MAX_SNAPSHOT_BYTES) {
+                throw new IOException("Not a parser warm up snapshot: " + file);
+            }
+            // Not sized by the count: only as many statements as are actually read take memory
+            List<String> statements = new ArrayList<>();
+            long totalBytes = 0;
+            for (int i = 0; i < count; i++) {
+                int length = in.readInt();
+                totalBytes += length;
+                if (length < 0 || totalBytes > MAX_SNAPSHOT_BYTES) {
+                    throw new IOException("Not a parser warm up snapshot: " + file);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                statements.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return statements;
+        }
+    }
+
+    static List<String> learnedStatements() {
+        synchronized (LEARNED_STATEMENTS) {
+            forgetIfCleared();
+            return new ArrayList<>(LEARNED_STATEMENTS);
+        }
+    }
+
+    /**
+     * Called, while {@link #isRecording}, when parsing a statement added states to the prediction DFA. The statement
+     * is parsed again to canonicalize it, which is only done for the few statements teaching the DFA something new.
+     */
+    static void learned(String statement) {
+        String canonical;
+        Boolean previous = THREAD_RECORDING.get();
+        THREAD_RECORDING.set(Boolean.FALSE);
+        try {
+            canonical = StatementFingerprint.of(statement).getText();
+        } catch (RuntimeException ex) {
+            // Not worth recording if it cannot be parsed again
+            return;
+        } finally {
+            restoreThreadRecording(previous);
+        }
+        synchronized (LEARNED_STATEMENTS) {
+            forgetIfCleared();
+            if (learnedChars + canonical.length() <= MAX_LEARNED_CHARS && LEARNED_STATEMENTS.add(canonical)) {
+                learnedChars += canonical.length();
+            }
+        }
+    }
+
+    /**
+     * Forgets the statements recorded before the prediction DFA was last cleared. Must hold the lock on
+     * {@link #LEARNED_STATEMENTS}.
+     */
+    private static void forgetIfCleared() {
+        long clearCount = StatementLayout2.parserCache().getClearCount();
+        if (clearCount != learnedClearCount) {
+            LEARNED_STATEMENTS.clear();
+            learnedChars = 0;
+            learnedClearCount = clearCount;
+        }
+    }
+
+    private static void restoreThreadRecording(Boolean previous) {
+        if (previous == null) {
+            THREAD_RECORDING.remove();
+        } else {
+            THREAD_RECORDING.set(previous);
+        }
+    }
+}
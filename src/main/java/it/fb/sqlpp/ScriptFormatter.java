@@ -0,0 +1,203 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Formats scripts made of several statements separated by {@code ;}. The script is split with the lexer, so
+ * semicolons within strings, quoted identifiers and comments are not taken as separators; the statements are then
+ * formatted in parallel, and written back in their original order, separated by blank lines.
+ * <p>
+ * No text of the script is lost. The comments before a statement are written on the lines before it, the comments
+ * after it up to its {@code ;} right after it, and the segments made only of comments as they are. Statements failing
+ * to parse, or with comments between their tokens, which the statement layout would drop, are written back
+ * unchanged. A {@code ;} is only written after the statements which had one.
+ */
+public final class ScriptFormatter {
+
+    private ScriptFormatter() {
+    }
+
+    public static String format(int lineWidth, int indentWidth, String script) {
+        return format(lineWidth, indentWidth, script, ForkJoinPool.commonPool());
+    }
+
+    public static String format(int lineWidth, int indentWidth, String script, Executor executor) {
+        List<Segment> segments = segments(script);
+        List<CompletableFuture<String>> formatted = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            if (segment.body == null || segment.innerComments) {
+                formatted.add(CompletableFuture.completedFuture(segment.body));
+            } else {
+                formatted.add(CompletableFuture.supplyAsync(() -> formatStatement(lineWidth, indentWidth, segment.body), executor));
+            }
+        }
+        StringBuilder sb = new StringBuilder(script.length() + script.length() / 4);
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            String body;
+            try {
+                body = formatted.get(i).join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            segment.appendTo(sb, body);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits a script at the {@code ;} tokens.
+     *
+     * @return The text of the statements, without the separators, leaving out the ones made only of whitespace and
+     * comments
+     */
+    public static List<String> split(String script) {
+        List<String> statements = new ArrayList<>();
+        for (Segment segment : segments(script)) {
+            if (segment.body != null) {
+                statements.add(segment.text);
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Splits a script at the {@code ;} tokens, keeping the comments around each statement apart from it.
+     *
+     * @return The segments of the script, leaving out the ones made only of whitespace and not followed by a
+     * {@code ;}
+     */
+    private static List<Segment> segments(String script) {
+        SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveCharStream(script));
+        lexer.removeErrorListeners();
+        List<Segment> segments = new ArrayList<>();
+        int start = 0;
+        int bodyStart = -1;
+        int bodyStop = -1;
+        boolean innerComments = false;
+        boolean pendingComments = false;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            if (token.getType() == SqlBaseLexer.UNRECOGNIZED && ";".equals(token.getText())) {
+                segments.add(new Segment(script, start, bodyStart, bodyStop, token.getStartIndex(), innerComments, true));
+                start = token.getStopIndex() + 1;
+                bodyStart = -1;
+                bodyStop = -1;
+                innerComments = false;
+                pendingComments = false;
+            } else if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                if (bodyStart < 0) {
+                    bodyStart = token.getStartIndex();
+                }
+                bodyStop = token.getStopIndex() + 1;
+                innerComments |= pendingComments;
+                pendingComments = false;
+            } else if (token.getType() != SqlBaseLexer.WS && bodyStart >= 0) {
+                pendingComments = true;
+            }
+        }
+        if (script.substring(start).trim().length() > 0) {
+            segments.add(new Segment(script, start, bodyStart, bodyStop, script.length(), innerComments, false));
+        }
+        return segments;
+    }
+
+    private static String formatStatement(int lineWidth, int indentWidth, String statement) {
+        try {
+            return StatementLayout2.format(lineWidth, indentWidth, statement);
+        } catch (ParseException | FormatTimeoutException ex) {
+            // Left as written, so that one bad statement does not stop the rest of the script
+            return statement;
+        }
+    }
+
+    /**
+     * The text between two {@code ;}: the statement, if any, and the comments before and after it.
+     */
+    private static final class Segment {
+        /**
+         * The whole text of the segment, trimmed.
+         */
+        final String text;
+        /**
+         * The comments before the statement, trimmed; all the comments of the segment if it has no statement.
+         */
+        final String leading;
+        /**
+         * From the first to the last token of the statement, or {@code null} if the segment is made only of comments.
+         */
+        final String body;
+        /**
+         * The comments after the statement, trimmed.
+         */
+        final String trailing;
+        final boolean innerComments;
+        final boolean terminated;
+
+        Segment(String script, int start, int bodyStart, int bodyStop, int stop, boolean innerComments, boolean terminated) {
+            this.text = script.substring(start, stop).trim();
+            if (bodyStart < 0) {
+                this.leading = text;
+                this.body = null;
+                this.trailing = "";
+            } else {
+                this.leading = script.substring(start, bodyStart).trim();
+                this.body = script.substring(bodyStart, bodyStop);
+                this.trailing = script.substring(bodyStop, stop).trim();
+            }
+            this.innerComments = innerComments;
+            this.terminated = terminated;
+        }
+
+        void appendTo(StringBuilder sb, String formattedBody) {
+            String comments;
+            if (body == null) {
+                sb.append(leading);
+                comments = leading;
+            } else {
+                if (!leading.isEmpty()) {
+                    sb.append(leading).append('\n');
+                }
+                sb.append(formattedBody);
+                if (!trailing.isEmpty()) {
+                    sb.append(' ').append(trailing);
+                }
+                comments = trailing;
+            }
+            if (terminated) {
+                if (endsWithLineComment(comments)) {
+                    // The ; would be taken as part of the comment
+                    sb.append('\n');
+                }
+                sb.append(';');
+            }
+            sb.append('\n');
+        }
+
+        private static boolean endsWithLineComment(String text) {
+            if (text.isEmpty()) {
+                return false;
+            }
+            SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveCharStream(text));
+            lexer.removeErrorListeners();
+            Token last = null;
+            for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+                last = token;
+            }
+            return last != null && last.getType() == SqlBaseLexer.SIMPLE_COMMENT;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package it.fb.sqlpp;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseParser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The shape of a statement, ignoring its literal values: statements differing only in their literals, in the
+ * number of literals in their IN lists, or in the case of their keywords and unquoted identifiers have the same
+ * fingerprint.
+ * <p>
+ * The canonical text is the statement on a single line, with every literal replaced by {@code ?}, literal-only IN
+ * lists collapsed to {@code IN ( ? )}, and everything but quoted identifiers in upper case. It is hashed with
+ * 128-bit MurmurHash3, so that fingerprints can be grouped by hash.
+ */
+public final class StatementFingerprint {
+
+    private static final String PLACEHOLDER = "?";
+    private static final Canonicalizer CANONICALIZER = new Canonicalizer();
+
+    private final String text;
+    private final HashCode hash;
+
+    private StatementFingerprint(String text) {
+        this.text = text;
+        this.hash = Hashing.murmur3_128().hashString(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @throws ParseException If the statement cannot be parsed
+     */
+    public static StatementFingerprint of(String statement) {
+        Tree tree = CANONICALIZER.toTree(StatementLayout2.invokeParser(statement));
+        return new StatementFingerprint(upperCaseUnquoted(TreeLayout.format(Integer.MAX_VALUE, 0, tree)));
+    }
+
+    /**
+     * @return The canonical text of the statement
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The first 64 bits of the hash of the canonical text
+     */
+    public long hash64() {
+        return hash.asLong();
+    }
+
+    /**
+     * @return The 128-bit hash of the canonical text
+     */
+    public HashCode hash128() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof StatementFingerprint && text.equals(((StatementFingerprint) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.asInt();
+    }
+
+    @Override
+    public String toString() {
+        return hash + " " + text;
+    }
+
+    /**
+     * Upper-cases the text outside of quotes: with the literals replaced, these are only left around quoted
+     * identifiers, whose case matters.
+     */
+    private static String upperCaseUnquoted(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        char quote = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote == 0) {
+                if (c == '"' || c == '`' || c == '\'') {
+                    quote = c;
+                }
+                sb.append(Character.toUpperCase(c));
+            } else {
+                if (c == quote) {
+                    quote = 0;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Canonicalizer extends StatementLayout2 {
+
+        @Override
+        public Tree visitNumericLiteral(SqlBaseParser.NumericLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitDecimalLiteral(SqlBaseParser.DecimalLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitDoubleLiteral(SqlBaseParser.DoubleLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitIntegerLiteral(SqlBaseParser.IntegerLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitStringLiteral(SqlBaseParser.StringLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitBasicStringLiteral(SqlBaseParser.BasicStringLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitBinaryLiteral(SqlBaseParser.BinaryLiteralContext ctx) {
+            return placeholder();
+        }
+
+        @Override
+        public Tree visitArithmeticUnary(SqlBaseParser.ArithmeticUnaryContext ctx) {
+            if (isLiteral(ctx.valueExpression())) {
+                return placeholder();
+            }
+            return super.visitArithmeticUnary(ctx);
+        }
+
+        @Override
+        public Tree visitInList(SqlBaseParser.InListContext ctx) {
+            for (SqlBaseParser.ExpressionContext expression : ctx.expression()) {
+                if (!(expression.booleanExpression() instanceof SqlBaseParser.PredicatedContext)) {
+                    return super.visitInList(ctx);
+                }
+                SqlBaseParser.PredicatedContext predicated = (SqlBaseParser.PredicatedContext) expression.booleanExpression();
+                if (predicated.predicate() != null || !isLiteral(predicated.valueExpression())) {
+                    return super.visitInList(ctx);
+                }
+            }
+            return nc -> {
+                nc.child("", "", toTree(ctx.value));
+                nc.child(ctx.NOT() == null ? "IN" : "NOT IN", "",
+                        nc2 -> nc2.singleChild("(", " )", placeholder()));
+            };
+        }
+
+        private static boolean isLiteral(SqlBaseParser.ValueExpressionContext ctx) {
+            if (ctx instanceof SqlBaseParser.ArithmeticUnaryContext) {
+                return isLiteral(((SqlBaseParser.ArithmeticUnaryContext) ctx).valueExpression());
+            }
+            if (!(ctx instanceof SqlBaseParser.ValueExpressionDefaultContext)) {
+                return false;
+            }
+            SqlBaseParser.PrimaryExpressionContext primary = ((SqlBaseParser.ValueExpressionDefaultContext) ctx).primaryExpression();
+            return primary instanceof SqlBaseParser.NumericLiteralContext
+                    || primary instanceof SqlBaseParser.StringLiteralContext
+                    || primary instanceof SqlBaseParser.BinaryLiteralContext
+                    || primary instanceof SqlBaseParser.ParameterContext
+                    || primary instanceof SqlBaseParser.MybatisParameterContext;
+        }
+
+        private static Tree placeholder() {
+            return nc -> nc.leaf(PLACEHOLDER);
+        }
+    }
+}
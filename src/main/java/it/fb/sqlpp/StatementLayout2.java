@@ -8,7 +8,17 @@ import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.RuleNode;
 import it.fb.repack.com.facebook.presto.sql.parser.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("WeakerAccess")
 public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
@@ -21,48 +31,247 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         }
     };
 
+    private static final ThreadLocal<ParserContext> PARSER_CONTEXT = ThreadLocal.withInitial(ParserContext::new);
+    private static final ParserStatistics PARSER_STATISTICS = new ParserStatistics();
+    private static final ParserCache PARSER_CACHE = ParserCache.forSqlBaseParser();
+    private static volatile FormatListener formatListener;
+
     public static String format(int lineWidth, int indentWidth, String statement) {
-        SqlBaseParser.SingleStatementContext parsed = invokeParser(statement);
-        return format(lineWidth, indentWidth, parsed);
+        StringBuilder sb = new StringBuilder();
+        format(lineWidth, indentWidth, statement, sb);
+        return sb.toString();
     }
 
-    static Tree toTree(String statement) {
-        SqlBaseParser.SingleStatementContext parsed = invokeParser(statement);
-        return INSTANCE.toTree(parsed);
+    /**
+     * Appends the formatted statement to a {@code StringBuilder}, which can be reused for many statements.
+     */
+    public static void format(int lineWidth, int indentWidth, String statement, StringBuilder output) {
+        try {
+            format(lineWidth, indentWidth, statement, output, Deadline.NONE);
+        } catch (IOException ex) {
+            throw new AssertionError("StringBuilder does not throw IOException", ex);
+        }
     }
 
-    private static SqlBaseParser.SingleStatementContext invokeParser(String sql) {
+    /**
+     * Writes the formatted statement to an {@code Appendable}, such as a {@code Writer}, without building it as a
+     * {@code String} first.
+     */
+    public static void format(int lineWidth, int indentWidth, String statement, Appendable output) throws IOException {
+        format(lineWidth, indentWidth, statement, output, Deadline.NONE);
+    }
+
+    /**
+     * Formats a statement, giving up if it takes longer than the given time.
+     *
+     * @throws FormatTimeoutException If formatting did not complete in time
+     */
+    public static String format(int lineWidth, int indentWidth, String statement, long timeout, TimeUnit unit) {
+        StringBuilder sb = new StringBuilder();
         try {
-            SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveStream(new ANTLRInputStream(sql)));
-            CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-            SqlBaseParser parser = new SqlBaseParser(tokenStream);
+            format(lineWidth, indentWidth, statement, sb, Deadline.after(timeout, unit));
+        } catch (IOException ex) {
+            throw new AssertionError("StringBuilder does not throw IOException", ex);
+        }
+        return sb.toString();
+    }
 
-            lexer.removeErrorListeners();
-            lexer.addErrorListener(ERROR_LISTENER);
+    private static void format(int lineWidth, int indentWidth, String statement, Appendable output, Deadline deadline) throws IOException {
+        FormatListener listener = formatListener;
+        Object event = FormatEvents.get().beginStatement();
+        if (listener == null && event == null) {
+            CompactTree tree = parse(statement, deadline, null);
+            deadline.checkNow();
+            TreeLayout.format(lineWidth, indentWidth, tree, output, deadline, null);
+            return;
+        }
+        FormatMetrics metrics = new FormatMetrics(statement);
+        CompactTree tree = parse(statement, deadline, metrics);
+        deadline.checkNow();
+        long start = System.nanoTime();
+        TreeLayout.format(lineWidth, indentWidth, tree, output, deadline, metrics);
+        metrics.layoutNanos = System.nanoTime() - start;
+        if (event != null) {
+            FormatEvents.get().endStatement(event, metrics);
+        }
+        if (listener != null) {
+            listener.formatted(metrics);
+        }
+    }
 
-            parser.removeErrorListeners();
-            parser.addErrorListener(ERROR_LISTENER);
+    /**
+     * Sets the listener receiving the metrics of every statement formatted from now on, by any thread.
+     *
+     * @param listener The listener, or null to stop collecting metrics
+     */
+    public static void setFormatListener(FormatListener listener) {
+        formatListener = listener;
+    }
+
+    /**
+     * @return The listener receiving the metrics of every statement formatted, or null
+     */
+    public static FormatListener getFormatListener() {
+        return formatListener;
+    }
+
+    /**
+     * Formats a statement, falling back to {@code minify} if it takes longer than the given time.
+     */
+    public static String formatOrMinify(int lineWidth, int indentWidth, String statement, long timeout, TimeUnit unit) {
+        try {
+            return format(lineWidth, indentWidth, statement, timeout, unit);
+        } catch (FormatTimeoutException ex) {
+            // The statement may well be valid, just too large to lay out in time: still worth making it compact
+            return minify(statement);
+        }
+    }
+
+    /**
+     * Puts a statement on a single line, replacing comments and whitespace between tokens with a single space. It
+     * only runs the lexer, so it takes time linear with the length of the statement.
+     */
+    public static String minify(String statement) {
+        SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveCharStream(statement));
+        lexer.removeErrorListeners();
+        StringBuilder sb = new StringBuilder(statement.length());
+        boolean separate = false;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                separate = sb.length() > 0;
+            } else {
+                if (separate) {
+                    sb.append(' ');
+                    separate = false;
+                }
+                sb.append(statement, token.getStartIndex(), token.getStopIndex() + 1);
+            }
+        }
+        return sb.toString();
+    }
 
+    static Tree toTree(String statement) {
+        return parse(statement, Deadline.NONE, null);
+    }
+
+    /**
+     * Parses a statement with {@code FastPathParser}, falling back to ANTLR for the statements it does not support.
+     * The tree is materialized right away, so that neither the ANTLR parse tree nor its tokens outlive this call.
+     */
+    private static CompactTree parse(String statement, Deadline deadline, FormatMetrics metrics) {
+        Tree tree = FastPathParser.parse(statement, deadline, metrics);
+        if (tree != null) {
+            PARSER_STATISTICS.fastParsed();
+        } else {
+            tree = INSTANCE.toTree(invokeParser(statement, deadline, metrics));
+        }
+        if (metrics == null) {
+            return CompactTree.of(tree, deadline);
+        }
+        long start = System.nanoTime();
+        CompactTree compactTree = CompactTree.of(tree, deadline);
+        metrics.toTreeNanos = System.nanoTime() - start;
+        return compactTree;
+    }
+
+    /**
+     * Parses a statement with ANTLR only, bypassing {@code FastPathParser}.
+     */
+    static Tree parseWithAntlr(String statement) {
+        return INSTANCE.toTree(invokeParser(statement));
+    }
+
+    /**
+     * @return The counters of the parsing stages, shared by all threads
+     */
+    public static ParserStatistics parserStatistics() {
+        return PARSER_STATISTICS;
+    }
+
+    /**
+     * @return The prediction cache shared by all threads
+     */
+    public static ParserCache parserCache() {
+        return PARSER_CACHE;
+    }
+
+    static SqlBaseParser.SingleStatementContext invokeParser(String sql) {
+        return invokeParser(sql, Deadline.NONE);
+    }
+
+    static SqlBaseParser.SingleStatementContext invokeParser(String sql, Deadline deadline) {
+        return invokeParser(sql, deadline, null);
+    }
+
+    /**
+     * @param metrics Where to record the time spent in each stage, or null. To time lexing on its own, the tokens
+     *                are all read before parsing starts.
+     */
+    static SqlBaseParser.SingleStatementContext invokeParser(String sql, Deadline deadline, FormatMetrics metrics) {
+        ParserContext context = PARSER_CONTEXT.get();
+        try {
+            SqlBaseParser parser = context.reset(sql, deadline);
+            long start = 0;
+            if (metrics != null) {
+                start = System.nanoTime();
+                context.tokenStream.fill();
+                metrics.tokenCount = context.tokenStream.getNumberOfOnChannelTokens() - 1;
+                long filled = System.nanoTime();
+                metrics.lexingNanos += filled - start;
+                start = filled;
+            }
             try {
-                // first, try parsing with potentially faster SLL mode
-                parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
-                return parser.singleStatement();
+                // first, try parsing with potentially faster SLL mode, giving up at the first error
+                context.sllMode();
+                SqlBaseParser.SingleStatementContext result = parser.singleStatement();
+                PARSER_STATISTICS.sllParsed();
+                context.parsed();
+                if (metrics != null) {
+                    metrics.sllNanos = System.nanoTime() - start;
+                    metrics.parser = FormatMetrics.Parser.SLL;
+                }
+                return result;
             } catch (ParseCancellationException ex) {
-                // if we fail, parse with LL mode
-                tokenStream.reset(); // rewind input stream
+                if (metrics != null) {
+                    long failed = System.nanoTime();
+                    metrics.sllNanos = failed - start;
+                    start = failed;
+                }
+                // if we fail, parse with LL mode, which either succeeds or reports the actual syntax error
+                context.tokenStream.seek(0); // rewind input stream
                 parser.reset();
-
-                return parser.singleStatement();
+                context.llMode();
+
+                SqlBaseParser.SingleStatementContext result = parser.singleStatement();
+                PARSER_STATISTICS.llParsed();
+                context.parsed();
+                if (metrics != null) {
+                    metrics.llNanos = System.nanoTime() - start;
+                    metrics.parser = FormatMetrics.Parser.LL;
+                }
+                return result;
             }
+        } catch (ParseException ex) {
+            PARSER_STATISTICS.parseFailed();
+            throw ex;
+        } catch (FormatTimeoutException ex) {
+            // Not a syntax error: counted apart, and left to the caller
+            PARSER_STATISTICS.parseTimedOut();
+            throw ex;
         } catch (StackOverflowError e) {
+            if (!(Thread.currentThread() instanceof DeepStackThread)) {
+                // the parser recurses for every nesting level: try again with a much larger stack
+                return DeepStackThread.call(() -> invokeParser(sql, deadline, metrics));
+            }
+            PARSER_STATISTICS.parseFailed();
             throw new ParsingException("Statement is too large (stack overflow while parsing)");
+        } finally {
+            if (context.release() && ParserWarmup.isRecording()) {
+                ParserWarmup.learned(sql);
+            }
         }
     }
 
-    private static String format(int lineWidth, int indentWidth, SqlBaseParser.SingleStatementContext statement) {
-        return TreeLayout.format(lineWidth, indentWidth, INSTANCE.toTree(statement));
-    }
-
     protected StatementLayout2() {
     }
 
@@ -70,7 +279,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         return node.accept(this);
     }
 
-    protected Tree toChildren(List<? extends ParserRuleContext> nodes, String opening, String joiner, String closing) {
+    protected Tree toChildren(List<? extends ParserRuleContext> nodes, CharSequence opening, CharSequence joiner, CharSequence closing) {
         if (nodes.isEmpty()) {
             return nc -> {
             };
@@ -87,7 +296,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         }
     }
 
-    protected Tree toChildren2(List<? extends ParserRuleContext> nodes, String opening, String joiner, String closing) {
+    protected Tree toChildren2(List<? extends ParserRuleContext> nodes, CharSequence opening, CharSequence joiner, CharSequence closing) {
         if (nodes.isEmpty()) {
             return nc -> {
             };
@@ -150,7 +359,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
                 nc.child("ORDER BY", "", toChildren(ctx.sortItem(), "", ",", ""));
             }
             if (ctx.limit != null) {
-                nc.child("LIMIT", "", nc2 -> nc2.leaf(ctx.limit.getText()));
+                nc.child("LIMIT", "", nc2 -> nc2.leaf(Labels.of(ctx.limit)));
             }
         };
     }
@@ -187,7 +396,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitSelectAll(SqlBaseParser.SelectAllContext ctx) {
         if (ctx.qualifiedName() != null) {
-            return nc -> nc.leaf(ctx.qualifiedName().getText() + ".*");
+            return nc -> nc.leaf(Labels.concat(Labels.of(ctx.qualifiedName()), ".*"));
         }
         return nc -> nc.leaf("*");
     }
@@ -198,7 +407,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
             return ctx.expression().accept(this);
         }
         return nc -> nc.singleChild("",
-                " AS " + ctx.identifier().getText(),
+                Labels.concat(" AS ", Labels.of(ctx.identifier())),
                 toTree(ctx.expression()));
     }
 
@@ -218,13 +427,13 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         if (ctx.identifier() == null) {
             return toTree(ctx.relationPrimary());
         } else {
-            return nc -> nc.singleChild("", " " + ctx.identifier().getText(), toTree(ctx.relationPrimary()));
+            return nc -> nc.singleChild("", Labels.concat(" ", Labels.of(ctx.identifier())), toTree(ctx.relationPrimary()));
         }
     }
 
     @Override
     public Tree visitTableName(SqlBaseParser.TableNameContext ctx) {
-        return nc -> nc.leaf(ctx.qualifiedName().getText());
+        return nc -> nc.leaf(Labels.of(ctx.qualifiedName()));
     }
 
     @Override
@@ -239,13 +448,13 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitComparison(SqlBaseParser.ComparisonContext ctx) {
         return nc -> nc.child("", "", toTree(ctx.value))
-                .child(ctx.comparisonOperator().getText(), "", toTree(ctx.right));
+                .child(Labels.of(ctx.comparisonOperator()), "", toTree(ctx.right));
     }
 
     @Override
     public Tree visitQuantifiedComparison(SqlBaseParser.QuantifiedComparisonContext ctx) {
         return nc -> nc.child("", "", toTree(ctx.value))
-                .child(ctx.comparisonOperator().getText() + ctx.comparisonQuantifier().getText() + " (", " )", toTree(ctx.query()));
+                .child(Labels.concat(Labels.of(ctx.comparisonOperator()), Labels.of(ctx.comparisonQuantifier()), " ("), " )", toTree(ctx.query()));
     }
 
     @Override
@@ -260,22 +469,22 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitUnquotedIdentifier(SqlBaseParser.UnquotedIdentifierContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
     public Tree visitQuotedIdentifier(SqlBaseParser.QuotedIdentifierContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
     public Tree visitBackQuotedIdentifier(SqlBaseParser.BackQuotedIdentifierContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
     public Tree visitDigitIdentifier(SqlBaseParser.DigitIdentifierContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
@@ -301,33 +510,33 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitNumericLiteral(SqlBaseParser.NumericLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
     public Tree visitDecimalLiteral(SqlBaseParser.DecimalLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.DECIMAL_VALUE().getText());
+        return nc -> nc.leaf(Labels.of(ctx.DECIMAL_VALUE()));
     }
 
     @Override
     public Tree visitDoubleLiteral(SqlBaseParser.DoubleLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.DOUBLE_VALUE().getText());
+        return nc -> nc.leaf(Labels.of(ctx.DOUBLE_VALUE()));
     }
 
     @Override
     public Tree visitIntegerLiteral(SqlBaseParser.IntegerLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.INTEGER_VALUE().getText());
+        return nc -> nc.leaf(Labels.of(ctx.INTEGER_VALUE()));
     }
 
     @Override
     public Tree visitMybatisParameter(SqlBaseParser.MybatisParameterContext ctx) {
-        return nc -> nc.leaf(ctx.MYBATIS_PARAMETER().getText());
+        return nc -> nc.leaf(Labels.of(ctx.MYBATIS_PARAMETER()));
     }
 
     @Override
     public Tree visitSortItem(SqlBaseParser.SortItemContext ctx) {
-        String pl = ctx.ordering == null ? "" : " " + ctx.ordering.getText();
-        String postLabel = ctx.nullOrdering == null ? pl : pl + " NULLS " + ctx.nullOrdering.getText();
+        CharSequence pl = ctx.ordering == null ? "" : Labels.concat(" ", Labels.of(ctx.ordering));
+        CharSequence postLabel = ctx.nullOrdering == null ? pl : Labels.concat(pl, " NULLS ", Labels.of(ctx.nullOrdering));
         return nc -> nc.singleChild("", postLabel, toTree(ctx.expression()));
     }
 
@@ -338,16 +547,31 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         } else if (ctx.NATURAL() != null) {
             throw new ParseException("TODO");
         } else {
+            // A chain of joins nests to the left: lay it out flat, walking down the chain rather than recursing
+            List<SqlBaseParser.JoinRelationContext> chain = new ArrayList<>();
+            SqlBaseParser.RelationContext left = ctx;
+            while (left instanceof SqlBaseParser.JoinRelationContext && isPlainJoin((SqlBaseParser.JoinRelationContext) left)) {
+                chain.add((SqlBaseParser.JoinRelationContext) left);
+                left = ((SqlBaseParser.JoinRelationContext) left).left;
+            }
+            SqlBaseParser.RelationContext first = left;
             return nc -> {
-                toTree(ctx.left).appendTo(nc);
-                nc.child(ctx.joinType().getText() + " JOIN", "", nc2 -> {
-                    toTree(ctx.rightRelation).accept(nc2);
-                    nc2.child("", "", toTree(ctx.joinCriteria()));
-                });
+                toTree(first).appendTo(nc);
+                for (int i = chain.size() - 1; i >= 0; i--) {
+                    SqlBaseParser.JoinRelationContext join = chain.get(i);
+                    nc.child(Labels.concat(Labels.of(join.joinType()), " JOIN"), "", nc2 -> {
+                        toTree(join.rightRelation).accept(nc2);
+                        nc2.child("", "", toTree(join.joinCriteria()));
+                    });
+                }
             };
         }
     }
 
+    private static boolean isPlainJoin(SqlBaseParser.JoinRelationContext ctx) {
+        return ctx.CROSS() == null && ctx.NATURAL() == null;
+    }
+
     @Override
     public Tree visitJoinCriteria(SqlBaseParser.JoinCriteriaContext ctx) {
         if (ctx.ON() != null) {
@@ -359,36 +583,59 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitLogicalBinary(SqlBaseParser.LogicalBinaryContext ctx) {
-        return nc -> {
-            if (ctx.left instanceof SqlBaseParser.LogicalBinaryContext) {
-                toTree(ctx.left).appendTo(nc);
-            } else {
-                nc.child("", "", toTree(ctx.left));
-            }
-            if (ctx.right instanceof SqlBaseParser.LogicalBinaryContext) {
-                toTree(ctx.right).appendTo(ctx.operator.getText(), nc);
+        return nc -> appendLogicalBinary(ctx, null, nc);
+    }
+
+    /**
+     * Appends the terms of a chain of logical operators as the children of a single node. The chain is walked
+     * iteratively along its left side, where the parser nests it; the right side is only nested for a higher
+     * precedence operator (as in {@code A OR B AND C}), whose terms are appended to the same node.
+     *
+     * @param prefix The operator to place before the first term, or null
+     */
+    private void appendLogicalBinary(SqlBaseParser.LogicalBinaryContext ctx, CharSequence prefix, Tree.Visitor nc) {
+        List<SqlBaseParser.LogicalBinaryContext> chain = new ArrayList<>();
+        SqlBaseParser.BooleanExpressionContext left = ctx;
+        while (left instanceof SqlBaseParser.LogicalBinaryContext) {
+            chain.add((SqlBaseParser.LogicalBinaryContext) left);
+            left = ((SqlBaseParser.LogicalBinaryContext) left).left;
+        }
+        nc.child(prefix == null ? "" : Labels.concat(prefix, " "), "", toTree(left));
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            SqlBaseParser.LogicalBinaryContext link = chain.get(i);
+            if (link.right instanceof SqlBaseParser.LogicalBinaryContext) {
+                appendLogicalBinary((SqlBaseParser.LogicalBinaryContext) link.right, Labels.of(link.operator), nc);
             } else {
-                nc.child(ctx.operator.getText(), "", toTree(ctx.right));
+                nc.child(Labels.of(link.operator), "", toTree(link.right));
             }
-        };
+        }
     }
 
     @Override
     public Tree visitArithmeticBinary(SqlBaseParser.ArithmeticBinaryContext ctx) {
+        List<SqlBaseParser.ArithmeticBinaryContext> chain = new ArrayList<>();
+        SqlBaseParser.ValueExpressionContext left = ctx;
+        while (left instanceof SqlBaseParser.ArithmeticBinaryContext) {
+            chain.add((SqlBaseParser.ArithmeticBinaryContext) left);
+            left = ((SqlBaseParser.ArithmeticBinaryContext) left).left;
+        }
+        Tree first = toTree(left);
         return nc -> {
-            toTree(ctx.left).appendTo(nc);
-            nc.child(ctx.operator.getText(), "", toTree(ctx.right));
+            first.appendTo(nc);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                nc.child(Labels.of(chain.get(i).operator), "", toTree(chain.get(i).right));
+            }
         };
     }
 
     @Override
     public Tree visitDereference(SqlBaseParser.DereferenceContext ctx) {
-        return nc -> nc.singleChild("", "." + ctx.identifier().getText(), toTree(ctx.primaryExpression()));
+        return nc -> nc.singleChild("", Labels.concat(".", Labels.of(ctx.identifier())), toTree(ctx.primaryExpression()));
     }
 
     @Override
     public Tree visitStringLiteral(SqlBaseParser.StringLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
@@ -447,12 +694,12 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         if (!ctx.sortItem().isEmpty()) {
             throw new ParseException("TODO");
         }
-        String opening = ctx.qualifiedName().getText() + "(";
+        CharSequence opening = Labels.concat(Labels.of(ctx.qualifiedName()), "(");
         if (ctx.over() == null) {
             if (ctx.ASTERISK() != null) {
-                return nc -> nc.leaf(opening + "*)");
+                return nc -> nc.leaf(Labels.concat(opening, "*)"));
             } else if (ctx.expression().isEmpty()) {
-                return nc -> nc.leaf(opening + ")");
+                return nc -> nc.leaf(Labels.concat(opening, ")"));
             } else {
                 return nc -> toChildren(ctx.expression(), opening, ",", ")")
                         .appendTo(nc);
@@ -460,9 +707,9 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
         } else {
             return nc -> {
                 if (ctx.ASTERISK() != null) {
-                    nc.leaf(opening + "*)");
+                    nc.leaf(Labels.concat(opening, "*)"));
                 } else if (ctx.expression().isEmpty()) {
-                    nc.leaf(opening + ")");
+                    nc.leaf(Labels.concat(opening, ")"));
                 } else {
                     nc.child(opening, ")", toChildren(ctx.expression(), "", ",", ""));
                 }
@@ -487,9 +734,9 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitWindowFrame(SqlBaseParser.WindowFrameContext ctx) {
         if (ctx.BETWEEN() == null) {
-            return nc -> nc.singleChild(ctx.frameType.getText(), "", toTree(ctx.frameBound(0)));
+            return nc -> nc.singleChild(Labels.of(ctx.frameType), "", toTree(ctx.frameBound(0)));
         } else {
-            return nc -> nc.singleChild(ctx.frameType.getText(), "", toChildren(ctx.frameBound(),
+            return nc -> nc.singleChild(Labels.of(ctx.frameType), "", toChildren(ctx.frameBound(),
                     "BETWEEN", "AND", ""));
         }
     }
@@ -508,9 +755,9 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     public Tree visitInsertInto(SqlBaseParser.InsertIntoContext ctx) {
         return nc -> {
             if (ctx.columnAliases() == null) {
-                nc.leaf("INSERT INTO " + ctx.qualifiedName().getText());
+                nc.leaf(Labels.concat("INSERT INTO ", Labels.of(ctx.qualifiedName())));
             } else {
-                nc.child("INSERT INTO " + ctx.qualifiedName().getText() + " (", ")",
+                nc.child(Labels.concat("INSERT INTO ", Labels.of(ctx.qualifiedName()), " ("), ")",
                         toChildren(ctx.columnAliases().identifier(), "", ",", ""));
             }
             nc.child("", "", toTree(ctx.query()));
@@ -530,7 +777,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitDelete(SqlBaseParser.DeleteContext ctx) {
         return nc -> {
-            nc.leaf("DELETE FROM " + ctx.qualifiedName().getText());
+            nc.leaf(Labels.concat("DELETE FROM ", Labels.of(ctx.qualifiedName())));
             if (ctx.booleanExpression() != null) {
                 nc.child("WHERE", "", toTree(ctx.booleanExpression()));
             }
@@ -582,7 +829,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitQualifiedName(SqlBaseParser.QualifiedNameContext ctx) {
-        return nc -> nc.leaf(ctx.getText());
+        return nc -> nc.leaf(Labels.of(ctx));
     }
 
     @Override
@@ -604,9 +851,9 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     public Tree visitNamedQuery(SqlBaseParser.NamedQueryContext ctx) {
         return nc -> {
             if (ctx.columnAliases() != null) {
-                nc.child(ctx.identifier().getText(), "", toTree(ctx.columnAliases()));
+                nc.child(Labels.of(ctx.identifier()), "", toTree(ctx.columnAliases()));
             } else {
-                nc.leaf(ctx.identifier().getText());
+                nc.leaf(Labels.of(ctx.identifier()));
             }
             nc.child("(", " )", toTree(ctx.query()));
         };
@@ -619,7 +866,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitArithmeticUnary(SqlBaseParser.ArithmeticUnaryContext ctx) {
-        return nc -> nc.singleChild(ctx.operator.getText(), "", toTree(ctx.valueExpression()));
+        return nc -> nc.singleChild(Labels.of(ctx.operator), "", toTree(ctx.valueExpression()));
     }
 
     @Override
@@ -646,11 +893,11 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitBaseType(SqlBaseParser.BaseTypeContext ctx) {
         if (ctx.DOUBLE_PRECISION() != null) {
-            return nc -> nc.leaf(ctx.DOUBLE_PRECISION().getText());
+            return nc -> nc.leaf(Labels.of(ctx.DOUBLE_PRECISION()));
         } else if (ctx.TIME_WITH_TIME_ZONE() != null) {
-            return nc -> nc.leaf(ctx.TIME_WITH_TIME_ZONE().getText());
+            return nc -> nc.leaf(Labels.of(ctx.TIME_WITH_TIME_ZONE()));
         } else if (ctx.TIMESTAMP_WITH_TIME_ZONE() != null) {
-            return nc -> nc.leaf(ctx.TIMESTAMP_WITH_TIME_ZONE().getText());
+            return nc -> nc.leaf(Labels.of(ctx.TIMESTAMP_WITH_TIME_ZONE()));
         } else if (ctx.identifier() != null) {
             return ctx.identifier().accept(this);
         } else {
@@ -660,12 +907,12 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitBasicStringLiteral(SqlBaseParser.BasicStringLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.STRING().getText());
+        return nc -> nc.leaf(Labels.of(ctx.STRING()));
     }
 
     @Override
     public Tree visitBinaryLiteral(SqlBaseParser.BinaryLiteralContext ctx) {
-        return nc -> nc.leaf(ctx.BINARY_LITERAL().getText());
+        return nc -> nc.leaf(Labels.of(ctx.BINARY_LITERAL()));
     }
 
     @Override
@@ -676,9 +923,9 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitBooleanValue(SqlBaseParser.BooleanValueContext ctx) {
         if (ctx.TRUE() != null) {
-            return nc -> nc.leaf(ctx.TRUE().getText());
+            return nc -> nc.leaf(Labels.of(ctx.TRUE()));
         } else if (ctx.FALSE() != null) {
-            return nc -> nc.leaf(ctx.FALSE().getText());
+            return nc -> nc.leaf(Labels.of(ctx.FALSE()));
         } else {
             throw new IllegalStateException("Unknown alternative");
         }
@@ -686,12 +933,12 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
 
     @Override
     public Tree visitBoundedFrame(SqlBaseParser.BoundedFrameContext ctx) {
-        return nc -> nc.singleChild("", ctx.boundType.getText(), toTree(ctx.expression()));
+        return nc -> nc.singleChild("", Labels.of(ctx.boundType), toTree(ctx.expression()));
     }
 
     @Override
     public Tree visitCall(SqlBaseParser.CallContext ctx) {
-        return nc -> nc.singleChild("CALL " + ctx.qualifiedName().getText(), "",
+        return nc -> nc.singleChild(Labels.concat("CALL ", Labels.of(ctx.qualifiedName())), "",
                 toChildren(ctx.callArgument(), "", ",", ""));
     }
 
@@ -753,7 +1000,7 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     @Override
     public Tree visitCreateTable(SqlBaseParser.CreateTableContext ctx) {
         return nc -> {
-            nc.child("CREATE TABLE" + (ctx.IF() != null ? " IF NOT EXISTS" : "") + ctx.qualifiedName().getText(),
+            nc.child(Labels.concat(ctx.IF() != null ? "CREATE TABLE IF NOT EXISTS" : "CREATE TABLE", Labels.of(ctx.qualifiedName())),
                     "", toChildren(ctx.tableElement(), "(", ",", ")"));
             if (ctx.COMMENT() != null) {
                 nc.child("COMMENT", "", toTree(ctx.string()));
@@ -768,8 +1015,155 @@ public class StatementLayout2 extends SqlBaseBaseVisitor<Tree> {
     public Tree visitSetOperation(SqlBaseParser.SetOperationContext ctx) {
         return nc -> {
             nc.child("", "", toTree(ctx.left));
-            nc.leaf(ctx.operator.getText() + (ctx.setQuantifier() == null ? "" : " " + ctx.setQuantifier().getText()));
+            nc.leaf(Labels.concat(Labels.of(ctx.operator),
+                    ctx.setQuantifier() == null ? "" : Labels.concat(" ", Labels.of(ctx.setQuantifier()))));
             nc.child("", "", toTree(ctx.right));
         };
     }
+
+    /**
+     * The lexer, token stream and parser used by a thread. Creating them, and configuring their error listeners, takes
+     * a large share of the time needed to parse a short statement: they are reset and reused instead.
+     */
+    private static final class ParserContext {
+        private final SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveCharStream(""));
+        private final ReusableTokenStream tokenStream = new ReusableTokenStream(lexer);
+        private final SqlBaseParser parser = new SqlBaseParser(tokenStream);
+        private ParserSimulator simulator;
+        private boolean learned;
+
+        private final ANTLRErrorStrategy bailErrorStrategy = new BailErrorStrategy();
+        private final ANTLRErrorStrategy defaultErrorStrategy = new DefaultErrorStrategy();
+
+        private ParserContext() {
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(ERROR_LISTENER);
+        }
+
+        SqlBaseParser reset(String sql, Deadline deadline) {
+            lexer.setInputStream(new CaseInsensitiveCharStream(sql));
+            tokenStream.setTokenSource(lexer);
+            parser.setTokenStream(tokenStream);
+            ParserCache.Generation generation = PARSER_CACHE.acquire();
+            if (simulator == null || simulator.getGeneration() != generation) {
+                simulator = new ParserSimulator(parser, generation);
+                parser.setInterpreter(simulator);
+            }
+            simulator.takeAddedStates();
+            simulator.setDeadline(deadline);
+            tokenStream.deadline = deadline;
+            return parser;
+        }
+
+        /**
+         * Drops the references to the last statement, its tokens and its parse tree, which would otherwise stay
+         * reachable from the thread until the next statement is parsed.
+         *
+         * @return Whether the statement was parsed, adding states to the prediction DFA
+         */
+        boolean release() {
+            lexer.setInputStream(new CaseInsensitiveCharStream(""));
+            tokenStream.setTokenSource(lexer);
+            if (simulator != null) {
+                simulator.release();
+                simulator.setDeadline(Deadline.NONE);
+            }
+            tokenStream.deadline = Deadline.NONE;
+            boolean learned = this.learned;
+            this.learned = false;
+            return learned;
+        }
+
+        void parsed() {
+            learned = simulator.takeAddedStates() > 0;
+        }
+
+        void sllMode() {
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.setErrorHandler(bailErrorStrategy);
+            parser.removeErrorListeners();
+        }
+
+        void llMode() {
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.setErrorHandler(defaultErrorStrategy);
+            defaultErrorStrategy.reset(parser);
+            parser.addErrorListener(ERROR_LISTENER);
+        }
+    }
+
+    /**
+     * A thread with a large stack, on which statements too deeply nested for the stack of the caller are parsed.
+     * The stack is reserved, but only committed as it is used.
+     * <p>
+     * The threads are pooled, so that they keep their lexer and parsers, and capped, since each reserves its whole
+     * stack: a burst of deep statements queues for them, and beyond the queue is rejected as too large.
+     */
+    private static final class DeepStackThread extends Thread {
+
+        private static final long STACK_SIZE = 1L << 30;
+        private static final int MAX_THREADS = 2;
+        private static final int MAX_QUEUED = 64;
+        private static final AtomicInteger COUNT = new AtomicInteger();
+        private static final ThreadPoolExecutor POOL = newPool();
+
+        private DeepStackThread(Runnable runnable) {
+            super(null, runnable, "sqlpp-deep-parser-" + COUNT.incrementAndGet(), STACK_SIZE);
+            setDaemon(true);
+        }
+
+        private static ThreadPoolExecutor newPool() {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED), DeepStackThread::new);
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+
+        static <T> T call(Callable<T> task) {
+            Future<T> future;
+            try {
+                future = POOL.submit(task);
+            } catch (RejectedExecutionException ex) {
+                PARSER_STATISTICS.parseFailed();
+                throw new ParsingException("Statement is too large (too many deeply nested statements being parsed)");
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new ParseException("Interrupted while parsing", ex);
+            } catch (ExecutionException ex) {
+                Throwable failure = ex.getCause();
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw new ParseException(failure);
+            }
+        }
+    }
+
+    private static final class ReusableTokenStream extends CommonTokenStream {
+
+        private Deadline deadline = Deadline.NONE;
+
+        private ReusableTokenStream(TokenSource tokenSource) {
+            super(tokenSource);
+        }
+
+        @Override
+        public void setTokenSource(TokenSource tokenSource) {
+            super.setTokenSource(tokenSource);
+            // Not reset by ANTLR 4.6
+            fetchedEOF = false;
+        }
+
+        @Override
+        protected int fetch(int n) {
+            deadline.check();
+            return super.fetch(n);
+        }
+    }
 }
@@ -0,0 +1,254 @@
+package it.fb.sqlpp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * A layout producing the same output as {@code TreeLayout}, but writing it to an {@code Appendable} while the
+ * {@code Tree} is being visited.
+ * <p>
+ * This is a bounded lookahead algorithm, in the style of Oppen's pretty printer: the content of a subtree is
+ * buffered only until it is known whether it fits on the current line, which happens at the latest when the
+ * buffered text exceeds the line width. From then on, the subtree is laid out indenting its children, and the
+ * buffered content is processed again. The memory used is then bounded by the line width, rather than by the size
+ * of the tree.
+ */
+public final class StreamingLayout {
+
+    private static final byte ITEM = 0;
+    private static final byte SINGLE_ITEM = 1;
+    private static final byte TEXT = 2;
+    private static final byte SPACED_TEXT = 3;
+    private static final byte OPEN = 4;
+    private static final byte CLOSE = 5;
+
+    public static void format(int lineWidth, int indentWidth, Tree tree, Appendable output) throws IOException {
+        StreamingLayout sl = new StreamingLayout(lineWidth, indentWidth, output);
+        try {
+            sl.open(0);
+            tree.accept(sl.new Walker());
+            sl.close();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private final int rowWidth;
+    private final int indentWidth;
+    private final Appendable output;
+    /**
+     * The indent levels of the subtrees being laid out indenting their children.
+     */
+    private int[] indentLevels = new int[16];
+    /**
+     * How many children of the subtrees in {@code indentLevels} have been laid out.
+     */
+    private int[] itemCounts = new int[16];
+    private int depth = 0;
+    private int column = 0;
+    private boolean lineHasText = false;
+    /**
+     * The events of the outermost subtree for which it is not known yet whether it fits, or null.
+     */
+    private Events pending = null;
+    private int pendingDepth;
+    private int pendingColumn;
+    private boolean pendingHasText;
+
+    private StreamingLayout(int rowWidth, int indentWidth, Appendable output) {
+        this.rowWidth = rowWidth;
+        this.indentWidth = indentWidth;
+        this.output = output;
+        indentLevels[0] = 0;
+    }
+
+    private void item(boolean single) {
+        process(single ? SINGLE_ITEM : ITEM, null, 0);
+    }
+
+    private void text(CharSequence text, boolean addSpace) {
+        if (!Labels.isEmpty(text)) {
+            process(addSpace ? SPACED_TEXT : TEXT, text, 0);
+        }
+    }
+
+    private void open(int indentIncrement) {
+        process(OPEN, null, indentIncrement);
+    }
+
+    private void close() {
+        process(CLOSE, null, 0);
+    }
+
+    private void process(byte type, CharSequence text, int indentIncrement) {
+        if (pending != null) {
+            buffer(type, text, indentIncrement);
+            return;
+        }
+        switch (type) {
+            case ITEM:
+            case SINGLE_ITEM:
+                if (type == SINGLE_ITEM && itemCounts[depth] > 0) {
+                    throw new IllegalStateException("Should not have called other methods before singleChild");
+                }
+                if (itemCounts[depth]++ > 0) {
+                    newLine(indentLevels[depth]);
+                }
+                break;
+            case TEXT:
+            case SPACED_TEXT:
+                append(text, type == SPACED_TEXT);
+                break;
+            case OPEN:
+                pending = new Events();
+                pendingDepth = 0;
+                pendingColumn = column;
+                pendingHasText = lineHasText;
+                buffer(type, text, indentIncrement);
+                break;
+            default:
+                depth--;
+                break;
+        }
+    }
+
+    private void buffer(byte type, CharSequence text, int indentIncrement) {
+        pending.add(type, text, indentIncrement);
+        switch (type) {
+            case TEXT:
+            case SPACED_TEXT:
+                pendingColumn += text.length() + (type == SPACED_TEXT && pendingHasText ? 1 : 0);
+                pendingHasText = true;
+                if (pendingColumn > rowWidth) {
+                    breakPending();
+                }
+                break;
+            case OPEN:
+                pendingDepth++;
+                break;
+            case CLOSE:
+                if (--pendingDepth == 0) {
+                    flushPending();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The outermost pending subtree fits on the current line.
+     */
+    private void flushPending() {
+        Events events = pending;
+        pending = null;
+        for (int i = 0; i < events.size; i++) {
+            if (events.types[i] == TEXT || events.types[i] == SPACED_TEXT) {
+                append(events.texts[i], events.types[i] == SPACED_TEXT);
+            }
+        }
+    }
+
+    /**
+     * The outermost pending subtree does not fit on the current line: its children must be laid out indenting them,
+     * and the events buffered so far must be processed again.
+     */
+    private void breakPending() {
+        Events events = pending;
+        pending = null;
+        push(indentLevels[depth] + events.indentIncrements[0]);
+        for (int i = 1; i < events.size; i++) {
+            process(events.types[i], events.texts[i], events.indentIncrements[i]);
+        }
+    }
+
+    private void push(int indentLevel) {
+        depth++;
+        if (depth == indentLevels.length) {
+            indentLevels = Arrays.copyOf(indentLevels, depth * 2);
+            itemCounts = Arrays.copyOf(itemCounts, depth * 2);
+        }
+        indentLevels[depth] = indentLevel;
+        itemCounts[depth] = 0;
+    }
+
+    private void append(CharSequence text, boolean addSpace) {
+        try {
+            if (addSpace && lineHasText) {
+                output.append(' ');
+                column++;
+            }
+            output.append(text);
+            column += text.length();
+            lineHasText = true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void newLine(int indentLevel) {
+        try {
+            output.append('\n');
+            column = indentLevel * indentWidth;
+            for (int i = 0; i < column; i++) {
+                output.append(' ');
+            }
+            lineHasText = false;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static final class Events {
+        private byte[] types = new byte[16];
+        private CharSequence[] texts = new CharSequence[16];
+        private int[] indentIncrements = new int[16];
+        private int size = 0;
+
+        void add(byte type, CharSequence text, int indentIncrement) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                texts = Arrays.copyOf(texts, size * 2);
+                indentIncrements = Arrays.copyOf(indentIncrements, size * 2);
+            }
+            types[size] = type;
+            texts[size] = text;
+            indentIncrements[size] = indentIncrement;
+            size++;
+        }
+    }
+
+    /**
+     * Turns the visit of the {@code Tree} into a sequence of events.
+     */
+    private final class Walker implements Tree.Visitor {
+        @Override
+        public Tree.Visitor leaf(CharSequence text) {
+            item(false);
+            text(text, true);
+            return this;
+        }
+
+        @Override
+        public Tree.Visitor child(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
+            item(false);
+            subTree(preLabel, postLabel, subTree, 1);
+            return this;
+        }
+
+        @Override
+        public void singleChild(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
+            item(true);
+            subTree(preLabel, postLabel, subTree, 0);
+        }
+
+        private void subTree(CharSequence preLabel, CharSequence postLabel, Tree subTree, int indentIncrement) {
+            text(preLabel, true);
+            open(indentIncrement);
+            subTree.accept(this);
+            close();
+            text(postLabel, false);
+        }
+    }
+}
@@ -17,11 +17,11 @@ public interface Tree extends Consumer<Tree.Visitor> {
     @Override
     void accept(Visitor visitor);
 
-    default void appendTo(String preLabel, Visitor visitor) {
+    default void appendTo(CharSequence preLabel, Visitor visitor) {
         Tree.this.accept(new Visitor() {
             boolean isFirst = true;
             @Override
-            public Visitor leaf(String text) {
+            public Visitor leaf(CharSequence text) {
                 if (isFirst) {
                     visitor.child(preLabel, "", inner -> inner.leaf(text));
                 } else {
@@ -32,9 +32,9 @@ public interface Tree extends Consumer<Tree.Visitor> {
             }
 
             @Override
-            public Visitor child(String _preLabel, String postLabel, Tree subTree) {
+            public Visitor child(CharSequence _preLabel, CharSequence postLabel, Tree subTree) {
                 if (isFirst) {
-                    visitor.child(preLabel + " " + _preLabel, postLabel, subTree);
+                    visitor.child(Labels.concat(preLabel, " ", _preLabel), postLabel, subTree);
                 } else {
                     visitor.child(_preLabel, postLabel, subTree);
                 }
@@ -43,7 +43,7 @@ public interface Tree extends Consumer<Tree.Visitor> {
             }
 
             @Override
-            public void singleChild(String _preLabel, String postLabel, Tree subTree) {
+            public void singleChild(CharSequence _preLabel, CharSequence postLabel, Tree subTree) {
                 child(_preLabel, postLabel, subTree);
             }
         });
@@ -52,19 +52,19 @@ public interface Tree extends Consumer<Tree.Visitor> {
     default void appendTo(Visitor visitor) {
         Tree.this.accept(new Visitor() {
             @Override
-            public Visitor leaf(String text) {
+            public Visitor leaf(CharSequence text) {
                 visitor.leaf(text);
                 return this;
             }
 
             @Override
-            public Visitor child(String preLabel, String postLabel, Tree subTree) {
+            public Visitor child(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
                 visitor.child(preLabel, postLabel, subTree);
                 return this;
             }
 
             @Override
-            public void singleChild(String preLabel, String postLabel, Tree subTree) {
+            public void singleChild(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
                 child(preLabel, postLabel, subTree);
             }
         });
@@ -72,6 +72,9 @@ public interface Tree extends Consumer<Tree.Visitor> {
 
     /**
      * A tree visitor. Fluent interface: where another method can be called, the method returns the receiver itself.
+     * <p>
+     * Texts and labels are {@code CharSequence}s, so that they can be views into the statement rather than copies;
+     * they must not change after having been passed to the visitor.
      */
     interface Visitor {
         /**
@@ -80,7 +83,7 @@ public interface Tree extends Consumer<Tree.Visitor> {
          * @param text The text of the leaf
          * @return The receiver
          */
-        Visitor leaf(String text);
+        Visitor leaf(CharSequence text);
 
         /**
          * Tree implementors should call this method if the next child is a subtree.
@@ -90,7 +93,7 @@ public interface Tree extends Consumer<Tree.Visitor> {
          * @param subTree   The subtree
          * @return The receiver
          */
-        Visitor child(String preLabel, String postLabel, Tree subTree);
+        Visitor child(CharSequence preLabel, CharSequence postLabel, Tree subTree);
 
         /**
          * Tree implementors should call this method once, and only this method, if the Tree has a single child.
@@ -99,6 +102,6 @@ public interface Tree extends Consumer<Tree.Visitor> {
          * @param postLabel The test to add after the subtree, possibly empty.
          * @param subTree   The subtree
          */
-        void singleChild(String preLabel, String postLabel, Tree subTree);
+        void singleChild(CharSequence preLabel, CharSequence postLabel, Tree subTree);
     }
 }
@@ -2,148 +2,196 @@ package it.fb.sqlpp;
 
 import com.google.common.base.Strings;
 
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lays out a {@code Tree} within a given line width. Every subtree is laid out straight on the current line when
+ * it fits; otherwise its children are placed on separate lines, indented one level deeper.
+ * <p>
+ * The tree is first materialized into a {@code CompactTree}, which knows the width each subtree takes when laid
+ * out straight: the "fits / break" decision for every subtree is then taken in constant time, and no output ever
+ * needs to be discarded. The subtrees being laid out are kept on an explicit stack, so the depth of the tree is
+ * not limited by the size of the thread stack.
+ */
 public final class TreeLayout {
 
-    private static final String MANY_SPACES = Stream.generate(() -> " ").limit(1000).collect(Collectors.joining());
+    private static final String SPACES = Strings.repeat(" ", 64);
 
     public static String format(int lineWidth, int indentWidth, Tree tree) {
-        TreeLayout tl = new TreeLayout(lineWidth, indentWidth);
-        try {
-            tl.format(tree, 0);
-        } catch (ReformatException ex) {
-            throw new IllegalStateException("Should not get a ReformatException at this level", ex);
-        }
-        return tl.sb.toString();
+        return format(lineWidth, indentWidth, CompactTree.of(tree));
     }
 
-    private final int rowWidth;
-    private final int indentWidth;
-    private final StringBuilder sb = new StringBuilder();
-    private final StraightLayout straightLayout = new StraightLayout();
-    private int curLineStartsAt = 0;
-    private int curTextStartsAt = 0;
+    public static String format(int lineWidth, int indentWidth, CompactTree tree) {
+        return format(lineWidth, indentWidth, tree, Deadline.NONE);
+    }
 
-    private TreeLayout(int rowWidth, int indentWidth) {
-        this.rowWidth = rowWidth;
-        this.indentWidth = indentWidth;
+    /**
+     * Appends the layout of the tree to a {@code StringBuilder}, which can be reused for many trees.
+     */
+    public static void format(int lineWidth, int indentWidth, Tree tree, StringBuilder output) {
+        format(lineWidth, indentWidth, CompactTree.of(tree), output, Deadline.NONE);
+    }
+
+    /**
+     * Writes the layout of the tree to an {@code Appendable}, such as a {@code Writer}, as it is produced.
+     */
+    public static void format(int lineWidth, int indentWidth, Tree tree, Appendable output) throws IOException {
+        format(lineWidth, indentWidth, CompactTree.of(tree), output, Deadline.NONE);
+    }
+
+    static String format(int lineWidth, int indentWidth, CompactTree tree, Deadline deadline) {
+        StringBuilder sb = new StringBuilder();
+        format(lineWidth, indentWidth, tree, sb, deadline);
+        return sb.toString();
     }
 
-    private void format(Tree tree, int indentLevel) {
-        int curLen = sb.length();
+    static void format(int lineWidth, int indentWidth, CompactTree tree, StringBuilder output, Deadline deadline) {
         try {
-            tree.accept(straightLayout);
-        } catch (ReformatException ex) {
-            sb.setLength(curLen);
-            tree.accept(new IndentingLayout(indentLevel));
+            new TreeLayout(lineWidth, indentWidth, tree, output, deadline).format();
+        } catch (IOException ex) {
+            throw new AssertionError("StringBuilder does not throw IOException", ex);
         }
     }
 
-    private void newLine(int indentLevel) {
-        sb.append('\n');
-        curLineStartsAt = sb.length();
-        sb.append(MANY_SPACES, 0, indentLevel * indentWidth);
-        curTextStartsAt = sb.length();
+    static void format(int lineWidth, int indentWidth, CompactTree tree, Appendable output, Deadline deadline) throws IOException {
+        new TreeLayout(lineWidth, indentWidth, tree, output, deadline).format();
     }
 
-    private static final class ReformatException extends RuntimeException {
-        private static final ReformatException INSTANCE = new ReformatException();
-
-        private ReformatException() {
+    /**
+     * @param metrics Where to record the counters of the layout, or null
+     */
+    static void format(int lineWidth, int indentWidth, CompactTree tree, Appendable output, Deadline deadline, FormatMetrics metrics) throws IOException {
+        TreeLayout layout = new TreeLayout(lineWidth, indentWidth, tree, output, deadline);
+        layout.format();
+        if (metrics != null) {
+            metrics.maxDepth = layout.maxTop;
+            metrics.brokenSubtrees = layout.brokenSubtrees;
+            metrics.outputLength = layout.linesLength + layout.column;
         }
     }
 
-    private final class StraightLayout implements Tree.Visitor {
-        private StraightLayout() {
-        }
+    private final int rowWidth;
+    private final int indentWidth;
+    private final CompactTree tree;
+    private final Deadline deadline;
+    /**
+     * The output is only ever appended to: since the layout of every subtree is decided before writing it, only the
+     * current column needs to be tracked.
+     */
+    private final Appendable output;
+    private int column = 0;
+    private boolean lineHasText = false;
+
+    /**
+     * The stack of the subtrees being laid out: the item owning each of them, the next of their items to lay out,
+     * the indent level of their items and whether they are laid out straight.
+     */
+    private int[] owners = new int[16];
+    private int[] nextItems = new int[16];
+    private int[] indentLevels = new int[16];
+    private boolean[] straights = new boolean[16];
+    private int top = -1;
+
+    /**
+     * Counters for {@code FormatMetrics}, cheap enough to be kept all the time.
+     */
+    private int maxTop = 0;
+    private int brokenSubtrees = 0;
+    /**
+     * The length of the lines completed so far, including their line terminators.
+     */
+    private long linesLength = 0;
+
+    private TreeLayout(int rowWidth, int indentWidth, CompactTree tree, Appendable output, Deadline deadline) {
+        this.rowWidth = rowWidth;
+        this.indentWidth = indentWidth;
+        this.tree = tree;
+        this.output = output;
+        this.deadline = deadline;
+    }
 
-        private void append(String text, boolean addSpace) throws ReformatException {
-            if (Strings.isNullOrEmpty(text)) {
-                return;
+    private void format() throws IOException {
+        push(CompactTree.ROOT, 0, fits(CompactTree.ROOT));
+        while (top >= 0) {
+            int owner = owners[top];
+            int i = nextItems[top];
+            if (i == tree.childEnd(owner)) {
+                top--;
+                append(tree.postLabel(owner), false);
+                continue;
             }
-            int curLen = sb.length();
-            addSpace &= curLen > curTextStartsAt;
-            int newLen = curLen + text.length() + (addSpace ? 1 : 0);
-            if (newLen - curLineStartsAt > rowWidth) {
-                throw ReformatException.INSTANCE;
+            deadline.check();
+            nextItems[top] = i + 1;
+            byte kind = tree.kind(i);
+            int indentLevel = indentLevels[top];
+            boolean straight = straights[top];
+            if (!straight) {
+                int first = tree.firstChild(owner);
+                if (kind == CompactTree.SINGLE_CHILD && i > first) {
+                    throw new IllegalStateException("Should not have called other methods before singleChild");
+                }
+                if (i > first) {
+                    newLine(indentLevel);
+                }
             }
-            if (addSpace) {
-                sb.append(' ');
+            append(tree.text(i), true);
+            if (kind != CompactTree.LEAF) {
+                if (straight) {
+                    push(i, indentLevel, true);
+                } else {
+                    push(i, kind == CompactTree.SINGLE_CHILD ? indentLevel : indentLevel + 1, fits(i));
+                }
             }
-            sb.append(text);
-        }
-
-        @Override
-        public Tree.Visitor leaf(String text) throws ReformatException {
-            append(text, true);
-            return this;
         }
+    }
 
-        @Override
-        public Tree.Visitor child(String preLabel, String postLabel, Tree subTree) throws ReformatException {
-            append(preLabel, true);
-            subTree.accept(this);
-            append(postLabel, false);
-            return this;
+    private void push(int owner, int indentLevel, boolean straight) {
+        top++;
+        if (top == owners.length) {
+            owners = Arrays.copyOf(owners, top * 2);
+            nextItems = Arrays.copyOf(nextItems, top * 2);
+            indentLevels = Arrays.copyOf(indentLevels, top * 2);
+            straights = Arrays.copyOf(straights, top * 2);
         }
-
-        @Override
-        public void singleChild(String preLabel, String postLabel, Tree subTree) {
-            child(preLabel, postLabel, subTree);
+        maxTop = Math.max(maxTop, top);
+        if (!straight) {
+            brokenSubtrees++;
         }
+        owners[top] = owner;
+        nextItems[top] = tree.firstChild(owner);
+        indentLevels[top] = indentLevel;
+        straights[top] = straight;
     }
 
-    private final class IndentingLayout implements Tree.Visitor {
-
-        private final int indentLevel;
-        private int callCount = 0;
-
-        private IndentingLayout(int indentLevel) {
-            this.indentLevel = indentLevel;
-        }
-
-        private void append(String text, boolean addSpace) {
-            if (Strings.isNullOrEmpty(text)) {
-                return;
-            }
-            int curLen = sb.length();
-            addSpace &= curLen > curTextStartsAt;
-            if (addSpace) {
-                sb.append(' ');
-            }
-            sb.append(text);
+    private boolean fits(int owner) {
+        if (tree.isEmpty(owner)) {
+            return true;
         }
+        int width = tree.width(owner) + (tree.leadingSpace(owner) && lineHasText ? 1 : 0);
+        return width <= rowWidth - column;
+    }
 
-        @Override
-        public Tree.Visitor leaf(String text) {
-            if (++callCount > 1) {
-                newLine(indentLevel);
-            }
-            append(text, true);
-            return this;
+    private void append(CharSequence text, boolean addSpace) throws IOException {
+        if (Labels.isEmpty(text)) {
+            return;
         }
-
-        @Override
-        public Tree.Visitor child(String preLabel, String postLabel, Tree subTree) {
-            if (++callCount > 1) {
-                newLine(indentLevel);
-            }
-            append(preLabel, true);
-            format(subTree, indentLevel + 1);
-            append(postLabel, false);
-            return this;
+        if (addSpace && lineHasText) {
+            output.append(' ');
+            column++;
         }
+        Labels.appendTo(text, output);
+        column += text.length();
+        lineHasText = true;
+    }
 
-        @Override
-        public void singleChild(String preLabel, String postLabel, Tree subTree) {
-            if (++callCount > 1) {
-                throw new IllegalStateException("Should not have called other methods before singleChild");
-            }
-            append(preLabel, true);
-            format(subTree, indentLevel);
-            append(postLabel, false);
+    private void newLine(int indentLevel) throws IOException {
+        output.append('\n');
+        linesLength += column + 1;
+        column = indentLevel * indentWidth;
+        for (int spaces = column; spaces > 0; spaces -= SPACES.length()) {
+            output.append(SPACES, 0, Math.min(spaces, SPACES.length()));
         }
+        lineHasText = false;
     }
 }
@@ -0,0 +1,411 @@
+package it.fb.sqlpp.it.fb.sqlpp.mybatis;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import org.xml.sax.SAXException;
+
+/**
+ * Formats all the mapper files in a directory tree, in parallel. Only the {@code .xml} files are looked at: hidden
+ * directories, such as {@code .git}, and the build output directories of the projects in the tree are not even
+ * entered, and are reported as excluded. The hashes of the files
+ * left by a run are kept in a manifest at the root of the tree, along with the line and indent width used: on the
+ * next run with the same widths, the files whose content still has the same hash are skipped without being parsed,
+ * so that re-running on a tree where nothing changed only costs reading and hashing the files.
+ * <p>
+ * Files are only rewritten when formatting changes them, through a temporary file in the same directory. Files
+ * which are not mappers are recorded in the manifest too, so they are not parsed again until they change. Files
+ * which fail to format are not recorded, and are tried again on every run. To format everything again, for example
+ * after upgrading the formatter, delete the manifest.
+ */
+public final class MybatisBatchFormatter {
+
+    public static final String MANIFEST_FILE_NAME = ".sqlpp-manifest";
+    private static final int MANIFEST_MAGIC = 0x53514c4d;
+    private static final int MANIFEST_VERSION = 1;
+    private static final int HASH_BYTES = Hashing.sha256().bits() / 8;
+    private static final int MAX_PATH_BYTES = 4096;
+    /**
+     * The size of an entry of the manifest with a path of a single byte, which bounds the number of entries a
+     * manifest of a given size can hold.
+     */
+    private static final int MIN_ENTRY_BYTES = 4 + 1 + 1 + 4 + HASH_BYTES;
+    /**
+     * Files are handed out one at a time to a few workers per core, rather than submitting a task per file: with
+     * thousands of files, mostly skipped, the cost of the tasks would exceed the cost of hashing the files, and the
+     * common pool of a single core machine even starts a thread per task.
+     */
+    private static final int WORKERS_PER_CORE = 2;
+    /**
+     * Directories holding build output, copies of the mappers at best, which are not entered when they are at the
+     * root of the tree or of a project in it: anywhere else, as in {@code com/acme/build}, they may well be sources.
+     */
+    private static final Set<String> BUILD_DIRECTORIES = ImmutableSet.of("target", "build", "out", "bin", "node_modules");
+    /**
+     * The files marking the root of a project.
+     */
+    private static final Set<String> BUILD_FILES = ImmutableSet.of("pom.xml", "build.gradle", "build.gradle.kts", "build.xml", "package.json");
+
+    private final int lineWidth;
+    private final int indentWidth;
+    private final Executor executor;
+
+    public MybatisBatchFormatter(int lineWidth, int indentWidth) {
+        this(lineWidth, indentWidth, ForkJoinPool.commonPool());
+    }
+
+    public MybatisBatchFormatter(int lineWidth, int indentWidth, Executor executor) {
+        this.lineWidth = lineWidth;
+        this.indentWidth = indentWidth;
+        this.executor = executor;
+    }
+
+    /**
+     * Formats the mapper files in the directory and its subdirectories, then writes the manifest for the next run.
+     *
+     * @param directory The root of the tree to format, where the manifest is kept
+     * @return The number of files formatted, skipped, unchanged and failed
+     * @throws IllegalStateException If formatting a file threw an unexpected exception; no other file is started
+     *                               after that, and the manifest is left as it was
+     */
+    public Result formatDirectory(Path directory) throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST_FILE_NAME);
+        Map<String, Outcome> previous = readManifest(manifestPath);
+        List<Path> excluded = new ArrayList<>();
+        List<Path> files = findXmlFiles(directory, excluded);
+
+        Outcome[] outcomes = new Outcome[files.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean stopped = new AtomicBoolean();
+        Runnable worker = () -> {
+            try {
+                while (!stopped.get()) {
+                    int i = next.getAndIncrement();
+                    if (i >= outcomes.length) {
+                        return;
+                    }
+                    outcomes[i] = formatFile(files.get(i), previous.get(manifestKey(directory, files.get(i))));
+                }
+            } catch (RuntimeException | Error ex) {
+                stopped.set(true);
+                throw ex;
+            }
+        };
+        int workers = Math.min(files.size(), Runtime.getRuntime().availableProcessors() * WORKERS_PER_CORE);
+        List<CompletableFuture<Void>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            running.add(CompletableFuture.runAsync(worker, executor));
+        }
+        // Every worker is waited for, so that none is still rewriting files once this has thrown
+        RuntimeException failure = null;
+        for (CompletableFuture<Void> future : running) {
+            try {
+                future.join();
+            } catch (CompletionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        Map<String, Outcome> current = new HashMap<>(files.size() * 2);
+        int formatted = 0;
+        int skipped = 0;
+        int unchanged = 0;
+        List<Path> failed = new ArrayList<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            Outcome outcome = outcomes[i];
+            switch (outcome.status) {
+                case FORMATTED:
+                    formatted++;
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+                case UNCHANGED:
+                    unchanged++;
+                    break;
+                case FAILED:
+                    failed.add(files.get(i));
+                    break;
+                case NOT_MAPPER:
+                    break;
+            }
+            if (outcome.hash != null) {
+                current.put(manifestKey(directory, files.get(i)), outcome);
+            }
+        }
+        writeManifest(manifestPath, current);
+        return new Result(formatted, skipped, unchanged, failed, excluded);
+    }
+
+    /**
+     * Lists the files to format, deciding from the names alone, so that no other file is ever read.
+     *
+     * @param excluded Where to add the directories not entered
+     */
+    private static List<Path> findXmlFiles(Path directory, List<Path> excluded) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(directory)) {
+                    String name = dir.getFileName().toString();
+                    if (name.startsWith(".") || (BUILD_DIRECTORIES.contains(name) && isProjectRoot(directory, dir.getParent()))) {
+                        excluded.add(dir);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && !name.startsWith(".") && name.toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private static boolean isProjectRoot(Path root, Path directory) {
+        if (directory.equals(root)) {
+            return true;
+        }
+        for (String buildFile : BUILD_FILES) {
+            if (Files.isRegularFile(directory.resolve(buildFile))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Outcome formatFile(Path file, Outcome previous) {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file);
+        } catch (IOException ex) {
+            return Outcome.FAILED;
+        }
+        HashCode hash = Hashing.sha256().hashBytes(content);
+        if (previous != null && hash.equals(previous.hash)) {
+            return previous.status == Status.NOT_MAPPER ? previous : new Outcome(Status.SKIPPED, hash);
+        }
+        if (!MybatisFormatter.isMapper(new ByteArrayInputStream(content))) {
+            return new Outcome(Status.NOT_MAPPER, hash);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + content.length / 4);
+        try {
+            MybatisFormatter.format(new ByteArrayInputStream(content), out, lineWidth, indentWidth);
+        } catch (ParserConfigurationException | XMLStreamException | SAXException | IOException ex) {
+            return Outcome.FAILED;
+        } catch (RuntimeException ex) {
+            throw new IllegalStateException("Error reading " + file, ex);
+        }
+        byte[] result = out.toByteArray();
+        if (Arrays.equals(content, result)) {
+            return new Outcome(Status.UNCHANGED, hash);
+        }
+        try {
+            Path tmpOutputPath = Files.createTempFile(file.toAbsolutePath().getParent(), "tempMapper", ".xml");
+            try {
+                Files.write(tmpOutputPath, result);
+                Files.move(tmpOutputPath, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmpOutputPath);
+            }
+        } catch (IOException ex) {
+            return Outcome.FAILED;
+        }
+        return new Outcome(Status.FORMATTED, Hashing.sha256().hashBytes(result));
+    }
+
+    private static String manifestKey(Path directory, Path file) {
+        return directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * @return The files recorded by the last run with the same widths, with their hashes and whether they are
+     * mappers; none if there was no such run or the manifest cannot be read
+     */
+    private Map<String, Outcome> readManifest(Path manifestPath) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestPath)))) {
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION
+                    || in.readInt() != lineWidth || in.readInt() != indentWidth) {
+                return Collections.emptyMap();
+            }
+            int count = in.readInt();
+            if (count < 0 || count > Files.size(manifestPath) / MIN_ENTRY_BYTES) {
+                return Collections.emptyMap();
+            }
+            Map<String, Outcome> outcomes = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] path = readBytes(in, 1, MAX_PATH_BYTES);
+                Status status = in.readBoolean() ? Status.SKIPPED : Status.NOT_MAPPER;
+                byte[] hash = readBytes(in, HASH_BYTES, HASH_BYTES);
+                outcomes.put(new String(path, StandardCharsets.UTF_8), new Outcome(status, HashCode.fromBytes(hash)));
+            }
+            return outcomes;
+        } catch (IOException | RuntimeException ex) {
+            // No manifest yet, or a truncated or corrupted one: either way, everything is formatted again
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Reads a length and as many bytes, checking the length first, so that a corrupted one cannot make it allocate
+     * gigabytes.
+     */
+    private static byte[] readBytes(DataInputStream in, int minLength, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < minLength || length > maxLength) {
+            throw new IOException("Corrupted manifest: invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * The manifest is written to a temporary file first, so that an interrupted write cannot leave a truncated
+     * manifest behind.
+     */
+    private void writeManifest(Path manifestPath, Map<String, Outcome> outcomes) throws IOException {
+        Path tmpManifestPath = Files.createTempFile(manifestPath.toAbsolutePath().getParent(), "tempManifest", null);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpManifestPath)))) {
+                out.writeInt(MANIFEST_MAGIC);
+                out.writeInt(MANIFEST_VERSION);
+                out.writeInt(lineWidth);
+                out.writeInt(indentWidth);
+                out.writeInt(outcomes.size());
+                for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+                    byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(path.length);
+                    out.write(path);
+                    out.writeBoolean(entry.getValue().status != Status.NOT_MAPPER);
+                    byte[] hash = entry.getValue().hash.asBytes();
+                    out.writeInt(hash.length);
+                    out.write(hash);
+                }
+            }
+            Files.move(tmpManifestPath, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpManifestPath);
+        }
+    }
+
+    private enum Status {
+        FORMATTED, SKIPPED, UNCHANGED, NOT_MAPPER, FAILED
+    }
+
+    private static final class Outcome {
+
+        static final Outcome FAILED = new Outcome(Status.FAILED, null);
+
+        final Status status;
+        /**
+         * The hash of the file as left by the run, or {@code null} if it must not be recorded in the manifest.
+         */
+        final HashCode hash;
+
+        Outcome(Status status, HashCode hash) {
+            this.status = status;
+            this.hash = hash;
+        }
+    }
+
+    public static final class Result {
+
+        private final int formatted;
+        private final int skipped;
+        private final int unchanged;
+        private final List<Path> failed;
+        private final List<Path> excluded;
+
+        Result(int formatted, int skipped, int unchanged, List<Path> failed, List<Path> excluded) {
+            this.formatted = formatted;
+            this.skipped = skipped;
+            this.unchanged = unchanged;
+            this.failed = Collections.unmodifiableList(failed);
+            this.excluded = Collections.unmodifiableList(excluded);
+        }
+
+        /**
+         * @return The number of mapper files rewritten
+         */
+        public int getFormatted() {
+            return formatted;
+        }
+
+        /**
+         * @return The number of mapper files skipped without being parsed, since unchanged from the last run
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return The number of mapper files parsed and found already formatted
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @return The files which could not be read, formatted or written
+         */
+        public List<Path> getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The hidden and build output directories not entered
+         */
+        public List<Path> getExcluded() {
+            return excluded;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Formatted %d files, %d skipped, %d unchanged, %d failed, %d directories excluded",
+                    formatted, skipped, unchanged, failed.size(), excluded.size());
+        }
+    }
+}
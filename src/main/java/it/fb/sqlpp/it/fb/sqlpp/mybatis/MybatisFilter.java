@@ -1,5 +1,7 @@
 package it.fb.sqlpp.it.fb.sqlpp.mybatis;
 
+import it.fb.sqlpp.FormatTimeoutException;
+import it.fb.sqlpp.ParseException;
 import it.fb.sqlpp.StatementLayout2;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -14,6 +16,8 @@ class MybatisFilter extends XMLFilterImpl implements LexicalHandler {
     private final StringBuilder currentPath = new StringBuilder();
     private final StringBuilder toFormat = new StringBuilder();
     private boolean formatting;
+    private int statements;
+    private int failures;
 
     MybatisFilter(XMLReader parent, int lineWidth, int indentWidth) {
         super(parent);
@@ -40,16 +44,19 @@ class MybatisFilter extends XMLFilterImpl implements LexicalHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (formatting) {
+            statements++;
             try {
                 String formatted = StatementLayout2.format(lineWidth, indentWidth, toFormat.toString());
                 super.characters("\n".toCharArray(), 0, 1);
                 super.characters(formatted.toCharArray(), 0, formatted.length());
                 super.characters("\n    ".toCharArray(), 0, 5);
-            } catch (it.fb.sqlpp.ParseException ex) {
-                // TODO: Logging?
+            } catch (ParseException | FormatTimeoutException ex) {
+                // Copied verbatim; the caller reports the count through FormatEvents.endMapper
+                failures++;
                 super.characters(toFormat.toString().toCharArray(), 0, toFormat.length());
             }
             toFormat.setLength(0);
+            formatting = false;
         }
         super.endElement(uri, localName, qName);
         currentPath.setLength(currentPath.length() - localName.length() - 1);
@@ -127,6 +134,20 @@ class MybatisFilter extends XMLFilterImpl implements LexicalHandler {
         }
     }
 
+    /**
+     * @return The number of statements found so far
+     */
+    int getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return The number of statements found so far which could not be formatted, and were copied as they were
+     */
+    int getFailures() {
+        return failures;
+    }
+
     private void cancelFormatting() throws SAXException {
         super.characters(toFormat.toString().toCharArray(), 0, toFormat.length());
         toFormat.setLength(0);
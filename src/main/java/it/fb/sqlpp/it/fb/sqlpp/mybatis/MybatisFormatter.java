@@ -2,6 +2,7 @@ package it.fb.sqlpp.it.fb.sqlpp.mybatis;
 
 import com.google.common.base.Strings;
 import com.google.common.io.Resources;
+import it.fb.sqlpp.FormatEvents;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -41,25 +42,31 @@ public class MybatisFormatter {
         if (!Files.isReadable(path) || !Files.isRegularFile(path)) {
             return false;
         }
+        try (InputStream in = Files.newInputStream(path)) {
+            return isMapper(in);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static boolean isMapper(InputStream in) {
         SAXParserFactory spf = SAXParserFactory.newInstance();
         spf.setNamespaceAware(true);
         try {
             AtomicReference<Boolean> isMybatis = new AtomicReference<>(null);
             SAXParser saxParser = spf.newSAXParser();
-            try (InputStream in = Files.newInputStream(path)) {
-                XMLReader reader = saxParser.getXMLReader();
-                reader.setEntityResolver(RESOLVER);
-                reader.setContentHandler(new DefaultHandler() {
-                    @Override
-                    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-                        if (isMybatis.get() != null) {
-                            return;
-                        }
-                        isMybatis.set(localName.equals("mapper"));
+            XMLReader reader = saxParser.getXMLReader();
+            reader.setEntityResolver(RESOLVER);
+            reader.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                    if (isMybatis.get() != null) {
+                        return;
                     }
-                });
-                reader.parse(new InputSource(in));
-            }
+                    isMybatis.set(localName.equals("mapper"));
+                }
+            });
+            reader.parse(new InputSource(in));
             return Optional.ofNullable(isMybatis.get()).orElse(false);
         } catch (ParserConfigurationException | SAXException | IOException e) {
             return false;
@@ -75,10 +82,15 @@ public class MybatisFormatter {
         CopyHandler handler = new CopyHandler(output);
         filter.setContentHandler(handler);
         filter.setEntityResolver(RESOLVER);
+        Object event = FormatEvents.get().beginMapper();
         try {
             filter.parse(new InputSource(input));
         } catch (CopyHandler.RuntimeXMLStreamException ex) {
             throw ex.getCause();
+        } finally {
+            if (event != null) {
+                FormatEvents.get().endMapper(event, filter.getStatements(), filter.getFailures());
+            }
         }
     }
 
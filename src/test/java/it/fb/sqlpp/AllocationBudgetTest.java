@@ -0,0 +1,127 @@
+package it.fb.sqlpp;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that formatting each statement of a fixed corpus allocates no more than its budget, so that the
+ * allocations removed from the formatting path do not creep back in. The budgets leave about a quarter of slack
+ * over what is allocated today: when an allocation is removed for good, lower them.
+ * <p>
+ * The budgets were measured on HotSpot 17 (Temurin), 64 bits, with the default compressed references. Without them,
+ * as with a heap over 32GB, references and object headers grow, and the same work allocates up to half as much
+ * again: the budgets are scaled to match.
+ */
+public class AllocationBudgetTest {
+
+    private static final String SIMPLE = "SELECT * FROM TBL";
+    private static final String WHERE = "SELECT A, B, C FROM TBL WHERE A = #{a} AND B LIKE 'x%' ORDER BY C";
+    private static final String JOIN = "SELECT T1.A, T2.B FROM T1 INNER JOIN T2 ON T1.ID = T2.ID LEFT JOIN T3 ON T2.ID = T3.ID WHERE T3.C IS NULL";
+    private static final String CASE = "SELECT CASE WHEN A = 1 THEN 'one' WHEN A = 2 THEN 'two' ELSE 'many' END AS N FROM TBL";
+    private static final String IN_LIST = "SELECT * FROM TBL WHERE A IN (1, 2, 3, 4, 5, 6, 7, 8, 9, 10)";
+    private static final String INSERT = "INSERT INTO TBL (A, B, C) VALUES (#{a}, #{b}, #{c})";
+    private static final String DELETE = "DELETE FROM TBL WHERE ID = #{id}";
+    private static final String SUBQUERY = "SELECT A FROM TBL WHERE B IN (SELECT B FROM TBL2 WHERE C > 0) GROUP BY A HAVING COUNT(*) > 1";
+    // Not supported by FastPathParser, so parsed by ANTLR
+    private static final String UNION = "SELECT A FROM T1 UNION ALL SELECT A FROM T2";
+    private static final String KEYWORD_IDENTIFIERS = "SELECT FIRST, LAST FROM TBL WHERE FIRST = 1";
+
+    private static final String[] CORPUS = {SIMPLE, WHERE, JOIN, CASE, IN_LIST, INSERT, DELETE, SUBQUERY, UNION, KEYWORD_IDENTIFIERS};
+    private static final int WARM_UP_ROUNDS = 2000;
+    private static final int REPETITIONS = 10;
+    private static final double UNCOMPRESSED_OOPS_FACTOR = 1.5;
+
+    private static double layoutFactor;
+
+    @BeforeClass
+    public static void warmUp() {
+        Assume.assumeTrue("Allocations cannot be measured", AllocationMeter.isSupported());
+        HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        Assume.assumeNotNull("The budgets were measured on HotSpot", hotSpot);
+        layoutFactor = compressedOops(hotSpot) ? 1 : UNCOMPRESSED_OOPS_FACTOR;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            for (String statement : CORPUS) {
+                StatementLayout2.format(80, 2, statement);
+            }
+        }
+    }
+
+    @Test
+    public void simple() {
+        assertAllocatesAtMost(4_000, SIMPLE);
+    }
+
+    @Test
+    public void where() {
+        assertAllocatesAtMost(8_000, WHERE);
+    }
+
+    @Test
+    public void join() {
+        assertAllocatesAtMost(13_000, JOIN);
+    }
+
+    @Test
+    public void caseExpression() {
+        assertAllocatesAtMost(9_000, CASE);
+    }
+
+    @Test
+    public void inList() {
+        assertAllocatesAtMost(9_000, IN_LIST);
+    }
+
+    @Test
+    public void insert() {
+        assertAllocatesAtMost(7_000, INSERT);
+    }
+
+    @Test
+    public void delete() {
+        assertAllocatesAtMost(4_000, DELETE);
+    }
+
+    @Test
+    public void subquery() {
+        assertAllocatesAtMost(10_000, SUBQUERY);
+    }
+
+    @Test
+    public void union() {
+        assertAllocatesAtMost(16_000, UNION);
+    }
+
+    @Test
+    public void keywordIdentifiers() {
+        assertAllocatesAtMost(16_000, KEYWORD_IDENTIFIERS);
+    }
+
+    private static boolean compressedOops(HotSpotDiagnosticMXBean hotSpot) {
+        try {
+            return Boolean.parseBoolean(hotSpot.getVMOption("UseCompressedOops").getValue());
+        } catch (IllegalArgumentException ex) {
+            // No such option on a 32 bits JVM, where references are as small as compressed ones
+            return true;
+        }
+    }
+
+    /**
+     * The fewest bytes allocated over a few calls are compared, since a call may also allocate for reasons
+     * unrelated to formatting, such as the JIT replacing a method being run.
+     */
+    private static void assertAllocatesAtMost(long calibratedBudget, String statement) {
+        long budget = (long) (calibratedBudget * layoutFactor);
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            allocated = Math.min(allocated, AllocationMeter.measure(() -> StatementLayout2.format(80, 2, statement)));
+        }
+        assertTrue(String.format("Formatting allocated %d bytes, more than the budget of %d: %s", allocated, budget, statement),
+                allocated <= budget);
+    }
+}
@@ -0,0 +1,71 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.CaseInsensitiveStream;
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class CaseInsensitiveCharStreamTest {
+
+    private static final String ALPHABET = "abcxyzABCXYZ019 _'\"()*,.\nàßıÿσ";
+
+    @Test
+    public void testSameAsCaseInsensitiveStream() {
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String text = sb.toString();
+            CharStream expected = new CaseInsensitiveStream(new ANTLRInputStream(text));
+            CharStream actual = new CaseInsensitiveCharStream(CharBuffer.wrap(text));
+            assertEquals(expected.size(), actual.size());
+            for (int step = 0; step < length + 1; step++) {
+                assertEquals(expected.index(), actual.index());
+                for (int la = -3; la <= 3; la++) {
+                    assertEquals(text + " @" + step + " LA(" + la + ")", expected.LA(la), actual.LA(la));
+                }
+                int a = random.nextInt(length + 2);
+                int b = a + random.nextInt(length + 2);
+                assertEquals(expected.getText(Interval.of(a, b)), actual.getText(Interval.of(a, b)));
+                if (step < length) {
+                    expected.consume();
+                    actual.consume();
+                }
+            }
+            int index = random.nextInt(length + 1);
+            expected.seek(index);
+            actual.seek(index);
+            assertEquals(expected.LA(1), actual.LA(1));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConsumeEof() {
+        new CaseInsensitiveCharStream("").consume();
+    }
+
+    @Test
+    public void testLexesSameTokens() {
+        String sql = "select a.\"Col\", 'Text' from Tbl where x >= 1.5e3 -- comment\n and y <> ?";
+        assertEquals(tokens(new CaseInsensitiveStream(new ANTLRInputStream(sql))),
+                tokens(new CaseInsensitiveCharStream(sql)));
+    }
+
+    private static List<String> tokens(CharStream stream) {
+        return new SqlBaseLexer(stream).getAllTokens().stream()
+                .map(t -> t.getType() + ":" + t.getText())
+                .collect(Collectors.toList());
+    }
+}
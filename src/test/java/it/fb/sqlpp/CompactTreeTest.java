@@ -0,0 +1,51 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CompactTreeTest {
+
+    private final Tree innerJoinCode = c -> c
+            .child("SELECT", "", c1 -> c1.leaf("*"))
+            .child("FROM", "", c1 -> c1
+                    .child("", "", c2 -> c2.leaf("TBL1"))
+                    .child("INNER JOIN", "", c2 -> c2
+                            .leaf("TBL2")
+                            .singleChild("ON", "", c3 -> c3.leaf("X"))))
+            .child("WHERE", "", c1 -> {
+            });
+
+    @Test
+    public void testReplaysSameTree() {
+        assertEquals(TreePrint.print(innerJoinCode), TreePrint.print(CompactTree.of(innerJoinCode)));
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(11, CompactTree.of(innerJoinCode).size());
+    }
+
+    @Test
+    public void testOfCompactTree() {
+        CompactTree tree = CompactTree.of(innerJoinCode);
+        assertSame(tree, CompactTree.of(tree));
+    }
+
+    @Test
+    public void testVisitsTreeOnce() {
+        AtomicInteger acceptCount = new AtomicInteger();
+        Tree leaf = c -> {
+            acceptCount.incrementAndGet();
+            c.leaf("X");
+        };
+        CompactTree tree = CompactTree.of(c -> c.child("", "", leaf).child("", "", leaf));
+        TreeLayout.format(80, 2, tree);
+        TreeLayout.format(1, 2, tree);
+        TreePrint.print(tree);
+        assertEquals(2, acceptCount.get());
+    }
+}
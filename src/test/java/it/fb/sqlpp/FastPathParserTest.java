@@ -0,0 +1,87 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FastPathParserTest {
+
+    @Test
+    public void testSameTreeAsAntlr() {
+        assertSameTree("SELECT * FROM TBL");
+        assertSameTree("select a, b as c, d e, t.* from tbl t where a = 1 and b <> 'x' or not c >= 2.5");
+        assertSameTree("SELECT * FROM TBL1 INNER JOIN TBL2 ON A = B LEFT OUTER JOIN TBL3 ON C < D RIGHT JOIN TBL4 ON E = F");
+        assertSameTree("SELECT * FROM TBL1 JOIN TBL2 JOIN TBL3 ON A = B ON C = D, TBL4 AS X");
+        assertSameTree("SELECT * FROM (SELECT A FROM TBL) T WHERE A IN (1, 2, 3) AND B NOT IN (SELECT B FROM TBL2)");
+        assertSameTree("SELECT A FROM TBL WHERE A BETWEEN 1 AND 2 AND B NOT BETWEEN C AND D OR E LIKE 'x%' ESCAPE '!'");
+        assertSameTree("SELECT A FROM TBL WHERE A IS NULL AND B IS NOT NULL AND EXISTS (SELECT 1 FROM TBL2)");
+        assertSameTree("SELECT COUNT(*), F(), G(A, B + 1), S.H(C) FROM TBL GROUP BY A, B HAVING COUNT(*) > 1");
+        assertSameTree("SELECT CASE WHEN A = 1 THEN 'a' WHEN A = 2 THEN 'b' ELSE 'c' END FROM TBL");
+        assertSameTree("SELECT CASE A WHEN 1 THEN 'a' ELSE 'b' END, CASE A WHEN 1 THEN 'a' WHEN 2 THEN 'b' END FROM TBL");
+        assertSameTree("SELECT -A * B + C / D - E % F || 'x', (A + B) * C, (A, B), (SELECT 1) FROM TBL");
+        assertSameTree("SELECT A.B.C, (A).B, #{param}, ?, TRUE, FALSE, NULL, X'00', 1E10, 1.5 FROM TBL");
+        assertSameTree("SELECT A FROM TBL ORDER BY A DESC, B ASC NULLS FIRST, C NULLS LAST LIMIT 10");
+        assertSameTree("VALUES (1, 2), (3, 4)");
+        assertSameTree("INSERT INTO TBL (A, B) VALUES (1, 2)");
+        assertSameTree("INSERT INTO S.TBL SELECT * FROM TBL2");
+        assertSameTree("DELETE FROM TBL");
+        assertSameTree("DELETE FROM TBL WHERE \"A\" = `B`");
+    }
+
+    @Test
+    public void testSameTreeAsAntlrRandom() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            assertSameTree(SqlGenerator.expressions(random));
+        }
+    }
+
+    @Test
+    public void testFallsBackToAntlr() {
+        assertFallsBack("WITH X AS (SELECT 1) SELECT * FROM X");
+        assertFallsBack("SELECT A FROM TBL1 UNION SELECT B FROM TBL2");
+        assertFallsBack("SELECT DISTINCT A FROM TBL");
+        assertFallsBack("SELECT CAST(A AS INTEGER) FROM TBL");
+        assertFallsBack("SELECT COUNT(DISTINCT A) FROM TBL");
+        assertFallsBack("SELECT ROW_NUMBER() OVER (PARTITION BY A) FROM TBL");
+        assertFallsBack("SELECT * FROM TBL1 CROSS JOIN TBL2");
+        assertFallsBack("SELECT * FROM TBL1 JOIN TBL2 USING (A)");
+        assertFallsBack("SELECT * FROM ((SELECT 1))");
+        assertFallsBack("SELECT DATE '2018-01-01' FROM TBL");
+        assertFallsBack("SELECT A FROM TBL WHERE A = ANY (SELECT B FROM TBL2)");
+        assertFallsBack("SELECT A FROM TBL WHERE A IS DISTINCT FROM B");
+        // Keywords can be used as identifiers, but only ANTLR knows which ones
+        assertFallsBack("SELECT FIRST FROM TBL");
+        assertFallsBack("CREATE TABLE TBL (A INTEGER)");
+        assertFallsBack("SELECT * FROM WHERE");
+        assertFallsBack("SELECT * FROM TBL WHERE");
+        assertFallsBack("SELECT * FROM TBL;");
+    }
+
+    @Test
+    public void testLexingTimeOnFallBack() {
+        FormatMetrics bailedInLexer = new FormatMetrics("SELECT * FROM TBL;");
+        assertNull(FastPathParser.parse("SELECT * FROM TBL;", Deadline.NONE, bailedInLexer));
+        assertEquals(0, bailedInLexer.getFastPathNanos());
+        assertTrue(bailedInLexer.getLexingNanos() >= 0);
+
+        FormatMetrics bailedInParser = new FormatMetrics("SELECT FIRST FROM TBL");
+        assertNull(FastPathParser.parse("SELECT FIRST FROM TBL", Deadline.NONE, bailedInParser));
+        assertEquals(4, bailedInParser.getTokenCount());
+    }
+
+    private static void assertSameTree(String sql) {
+        Tree tree = FastPathParser.parse(sql, Deadline.NONE);
+        assertNotNull(sql, tree);
+        assertEquals(sql, TreePrint.print(StatementLayout2.parseWithAntlr(sql)), TreePrint.print(tree));
+    }
+
+    private static void assertFallsBack(String sql) {
+        assertNull(sql, FastPathParser.parse(sql, Deadline.NONE));
+    }
+}
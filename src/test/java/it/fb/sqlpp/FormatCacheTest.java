@@ -0,0 +1,56 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FormatCacheTest {
+
+    private static final String SQL = "SELECT A, B, C FROM TBL WHERE A = 1 AND B = 2 ORDER BY C";
+
+    @Test
+    public void testHitsAndMisses() {
+        FormatCache cache = new FormatCache(10_000);
+        assertEquals(StatementLayout2.format(30, 2, SQL), cache.format(30, 2, SQL));
+        assertEquals(StatementLayout2.format(30, 2, SQL), cache.format(30, 2, SQL));
+        assertEquals(StatementLayout2.format(80, 2, SQL), cache.format(80, 2, SQL));
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(2, cache.stats().missCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCompressed() {
+        FormatCache cache = new FormatCache(10_000, true);
+        String expected = StatementLayout2.format(20, 4, SQL);
+        assertEquals(expected, cache.format(20, 4, SQL));
+        assertEquals(expected, cache.format(20, 4, SQL));
+        assertEquals(1, cache.stats().hitCount());
+    }
+
+    @Test
+    public void testEviction() {
+        FormatCache cache = new FormatCache(4 * SQL.length());
+        for (int i = 10; i < 30; i++) {
+            cache.format(i * 4, 2, SQL);
+        }
+        assertTrue(cache.stats().evictionCount() > 0);
+        assertTrue(cache.size() <= 2);
+    }
+
+    @Test
+    public void testParseExceptionNotCached() {
+        FormatCache cache = new FormatCache(10_000);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.format(80, 2, "SELECT FROM WHERE");
+                fail("Expected a ParseException");
+            } catch (ParseException ex) {
+                assertEquals(0, cache.size());
+            }
+        }
+        assertEquals(2, cache.stats().missCount());
+    }
+}
@@ -0,0 +1,23 @@
+package it.fb.sqlpp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FormatEventsTest {
+
+    @Test
+    public void testFlightRecorderEventsLoaded() {
+        Assume.assumeTrue("The JVM has no Flight Recorder", ClassLoader.getSystemResource("jdk/jfr/Event.class") != null);
+        assertEquals("it.fb.sqlpp.jfr.JfrFormatEvents", FormatEvents.get().getClass().getName());
+    }
+
+    @Test
+    public void testNotRecording() {
+        assertNull(FormatEvents.get().beginStatement());
+        assertNull(FormatEvents.get().beginMapper());
+        assertEquals("SELECT * FROM TBL", StatementLayout2.format(80, 2, "SELECT * FROM TBL"));
+    }
+}
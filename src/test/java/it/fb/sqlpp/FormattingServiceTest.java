@@ -0,0 +1,119 @@
+package it.fb.sqlpp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FormattingServiceTest {
+
+    @Test
+    public void testFormatConcurrently() {
+        List<String> statements = new ArrayList<>();
+        for (SqlGenerator.Shape shape : SqlGenerator.Shape.values()) {
+            for (int size = 1; size <= 20; size++) {
+                statements.add(shape.generate(size));
+            }
+        }
+        try (FormattingService service = FormattingService.withThreads(4, statements.size())) {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (String statement : statements) {
+                results.add(service.submit(40, 2, statement));
+            }
+            for (int i = 0; i < statements.size(); i++) {
+                assertEquals(StatementLayout2.format(40, 2, statements.get(i)), results.get(i).join());
+            }
+            assertEquals(0, service.pending());
+        }
+    }
+
+    @Test
+    public void testRejectWhenFull() throws InterruptedException {
+        List<Runnable> queued = new ArrayList<>();
+        FormattingService service = new FormattingService(queued::add, 2);
+        CompletableFuture<String> first = service.submit(80, 2, "SELECT * FROM TBL");
+        service.submit(80, 2, "SELECT * FROM TBL2");
+        assertEquals(2, service.pending());
+        try {
+            service.submit(80, 2, "SELECT * FROM TBL3");
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+            // The queue is full
+        }
+        try {
+            service.submit(80, 2, "SELECT * FROM TBL3", 10, TimeUnit.MILLISECONDS);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+            // Still full after the timeout
+        }
+        queued.get(0).run();
+        assertEquals("SELECT * FROM TBL", first.join());
+        assertEquals(1, service.pending());
+        service.submit(80, 2, "SELECT * FROM TBL3");
+        assertEquals(2, service.pending());
+    }
+
+    @Test
+    public void testFailure() throws InterruptedException {
+        try (FormattingService service = FormattingService.withThreads(1, 1)) {
+            service.submit(80, 2, "SELECT * FROM WHERE").get();
+            fail("Expected ParseException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ParseException);
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testClosed() {
+        FormattingService service = FormattingService.withThreads(1, 1);
+        service.close();
+        service.submit(80, 2, "SELECT * FROM TBL");
+    }
+
+    @Test
+    public void testClosedWithCallerExecutor() {
+        List<Runnable> queued = new ArrayList<>();
+        FormattingService service = new FormattingService(queued::add, 2);
+        service.close();
+        try {
+            service.submit(80, 2, "SELECT * FROM TBL");
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+            // Closed, even though the executor still accepts tasks
+        }
+        assertTrue(queued.isEmpty());
+    }
+
+    @Test
+    public void testExecutorFailure() {
+        FormattingService service = new FormattingService(task -> {
+            throw new IllegalStateException("Executor broken");
+        }, 1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                service.submit(80, 2, "SELECT * FROM TBL");
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                // The permit is given back, so the second statement is not rejected as too many
+            }
+        }
+        assertEquals(0, service.pending());
+    }
+
+    @Test
+    public void testVirtualThreads() {
+        Assume.assumeTrue("Virtual threads are not supported", FormattingService.virtualThreadsSupported());
+        try (FormattingService service = FormattingService.withVirtualThreads(10)) {
+            assertEquals("SELECT * FROM TBL", service.submit(80, 2, "SELECT * FROM TBL").join());
+        }
+    }
+}
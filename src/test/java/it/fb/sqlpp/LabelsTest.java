@@ -0,0 +1,43 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class LabelsTest {
+
+    @Test
+    public void testSlice() {
+        String source = "SELECT A FROM TBL";
+        CharSequence slice = Labels.slice(source, 7, 8);
+        assertEquals("A", slice.toString());
+        assertEquals(1, slice.length());
+        assertEquals('A', slice.charAt(0));
+        assertEquals("FROM", Labels.slice(source, 9, 17).subSequence(0, 4).toString());
+        assertSame(source, Labels.slice(source, 0, source.length()));
+        assertEquals("", Labels.slice(source, 3, 3));
+    }
+
+    @Test
+    public void testConcat() {
+        String source = "SELECT A FROM TBL";
+        CharSequence label = Labels.concat(" AS ", Labels.slice(source, 14, 17), "(");
+        assertEquals(" AS TBL(", label.toString());
+        assertEquals(8, label.length());
+        assertEquals('T', label.charAt(4));
+        assertEquals("TBL", label.subSequence(4, 7).toString());
+        assertSame(label, Labels.concat(label, ""));
+        StringBuilder sb = new StringBuilder("X");
+        Labels.appendTo(label, sb);
+        assertEquals("X AS TBL(", sb.toString());
+    }
+
+    @Test
+    public void testQualifiedNames() {
+        assertEquals("SELECT S.F( A) FROM S.TBL", StatementLayout2.format(80, 2, "SELECT S.F(A) FROM S.TBL"));
+        assertEquals("SELECT S.F( A) FROM S.TBL", StatementLayout2.format(80, 2, "SELECT S . F(A) FROM S /* x */ . TBL"));
+        assertEquals("SELECT S.F( A) FROM S.TBL UNION SELECT 1",
+                StatementLayout2.format(80, 2, "SELECT S . F(A) FROM S\n.\nTBL UNION SELECT 1"));
+    }
+}
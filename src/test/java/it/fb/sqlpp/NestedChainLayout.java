@@ -0,0 +1,34 @@
+package it.fb.sqlpp;
+
+import it.fb.repack.com.facebook.presto.sql.parser.SqlBaseParser;
+
+/**
+ * The original layout of AND/OR and arithmetic chains, splicing every level into its parent through
+ * {@code Tree.appendTo}, kept as a reference to check that the flattened chains produce the very same output.
+ */
+final class NestedChainLayout extends StatementLayout2 {
+
+    @Override
+    public Tree visitLogicalBinary(SqlBaseParser.LogicalBinaryContext ctx) {
+        return nc -> {
+            if (ctx.left instanceof SqlBaseParser.LogicalBinaryContext) {
+                toTree(ctx.left).appendTo(nc);
+            } else {
+                nc.child("", "", toTree(ctx.left));
+            }
+            if (ctx.right instanceof SqlBaseParser.LogicalBinaryContext) {
+                toTree(ctx.right).appendTo(Labels.of(ctx.operator), nc);
+            } else {
+                nc.child(Labels.of(ctx.operator), "", toTree(ctx.right));
+            }
+        };
+    }
+
+    @Override
+    public Tree visitArithmeticBinary(SqlBaseParser.ArithmeticBinaryContext ctx) {
+        return nc -> {
+            toTree(ctx.left).appendTo(nc);
+            nc.child(Labels.of(ctx.operator), "", toTree(ctx.right));
+        };
+    }
+}
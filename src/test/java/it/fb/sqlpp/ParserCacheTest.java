@@ -0,0 +1,56 @@
+package it.fb.sqlpp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParserCacheTest {
+
+    private final ParserCache cache = StatementLayout2.parserCache();
+
+    @After
+    public void tearDown() {
+        cache.setMaxDfaStates(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testClear() {
+        StatementLayout2.invokeParser("SELECT * FROM TBL WHERE A = B");
+        assertTrue(cache.getDfaStateCount() > 0);
+        assertTrue(cache.getApproximateRetainedBytes() > 0);
+        long clears = cache.getClearCount();
+        cache.clear();
+        assertEquals(0, cache.getDfaStateCount());
+        assertEquals(0, cache.getPredictionContextCount());
+        assertEquals(clears + 1, cache.getClearCount());
+    }
+
+    @Test
+    public void testGrowsWhileParsing() {
+        cache.clear();
+        StatementLayout2.invokeParser("SELECT * FROM TBL WHERE A = B");
+        long states = cache.getDfaStateCount();
+        long bytes = cache.getApproximateRetainedBytes();
+        assertTrue(states > 0);
+        StatementLayout2.invokeParser("SELECT X, CASE WHEN A = B THEN 1 ELSE 2 END FROM TBL ORDER BY X");
+        assertTrue(cache.getDfaStateCount() > states);
+        assertTrue(cache.getApproximateRetainedBytes() > bytes);
+    }
+
+    @Test
+    public void testBudget() {
+        cache.setMaxDfaStates(10);
+        long clears = cache.getClearCount();
+        StatementLayout2.invokeParser("SELECT * FROM TBL WHERE A = B");
+        StatementLayout2.invokeParser("SELECT * FROM TBL WHERE A = B");
+        assertTrue(cache.getClearCount() > clears);
+        assertEquals("SELECT * FROM TBL WHERE A = B", StatementLayout2.format(80, 2, "SELECT * FROM TBL WHERE A = B"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBudget() {
+        cache.setMaxDfaStates(0);
+    }
+}
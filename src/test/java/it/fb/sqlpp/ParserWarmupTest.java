@@ -0,0 +1,120 @@
+package it.fb.sqlpp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParserWarmupTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWarmUp() {
+        assertEquals(2, ParserWarmup.warmUp(Arrays.asList(
+                "SELECT * FROM TBL WHERE A = B",
+                "SELECT FROM",
+                "DELETE FROM TBL WHERE A IN (1, 2)")));
+        assertTrue(ParserWarmup.isWarm());
+    }
+
+    @Test
+    public void testWarmUpAsync() throws Exception {
+        assertEquals(Integer.valueOf(1), ParserWarmup.warmUpAsync(Arrays.asList("SELECT A, B FROM TBL"))
+                .get(10, TimeUnit.SECONDS));
+        assertTrue(ParserWarmup.isWarm());
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        StatementLayout2.parserCache().clear();
+        ParserWarmup.warmUp(Arrays.asList(
+                "SELECT X, CASE WHEN A = B THEN 1 ELSE 2 END FROM TBL",
+                "SELECT ARRAY [1, 2], CAST (A AS VARCHAR) FROM TBL\nWHERE A LIKE 'à%'"));
+        assertFalse(ParserWarmup.learnedStatements().isEmpty());
+        Path snapshot = folder.getRoot().toPath().resolve("warmup.bin");
+        ParserWarmup.saveSnapshot(snapshot);
+        List<String> loaded = ParserWarmup.loadSnapshot(snapshot);
+        assertEquals(new HashSet<>(ParserWarmup.learnedStatements()), new HashSet<>(loaded));
+        assertEquals(loaded.size(), ParserWarmup.warmUp(loaded));
+        for (String statement : loaded) {
+            assertFalse(statement, statement.contains("à%") || statement.contains("1"));
+        }
+    }
+
+    @Test
+    public void testRecordingOptIn() {
+        StatementLayout2.parserCache().clear();
+        StatementLayout2.format(80, 2, "SELECT X FROM TBL WHERE A = 'secret' UNION SELECT Y FROM TBL2");
+        assertTrue(ParserWarmup.learnedStatements().isEmpty());
+
+        ParserWarmup.setRecording(true);
+        try {
+            StatementLayout2.format(80, 2, "SELECT X FROM TBL WHERE A IN ('secret', 'other') EXCEPT SELECT Y FROM TBL2");
+        } finally {
+            ParserWarmup.setRecording(false);
+        }
+        assertEquals(Arrays.asList("SELECT X FROM TBL WHERE A IN ( ? ) EXCEPT SELECT Y FROM TBL2"),
+                ParserWarmup.learnedStatements());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidSnapshot() throws IOException {
+        Path snapshot = folder.newFile("invalid.bin").toPath();
+        Files.write(snapshot, new byte[]{1, 2, 3});
+        ParserWarmup.loadSnapshot(snapshot);
+    }
+
+    @Test
+    public void testDamagedSnapshot() throws IOException {
+        Path valid = folder.getRoot().toPath().resolve("valid.bin");
+        ParserWarmup.saveSnapshot(valid);
+        byte[] header;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(valid))) {
+            header = new byte[8];
+            new DataInputStream(in).readFully(header);
+        }
+        int[][] damaged = {
+                {-1},
+                {Integer.MAX_VALUE},
+                {1, -1},
+                {1, Integer.MAX_VALUE},
+                {1, 1 << 22},
+        };
+        for (int[] ints : damaged) {
+            Path snapshot = folder.getRoot().toPath().resolve("damaged.bin");
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(snapshot)))) {
+                out.write(header);
+                for (int value : ints) {
+                    out.writeInt(value);
+                }
+                // Enough bytes for a statement of the first length, if it was read
+                out.write(new byte[1 << 21]);
+            }
+            try {
+                ParserWarmup.loadSnapshot(snapshot);
+                fail("Expected IOException for " + Arrays.toString(ints));
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().startsWith("Not a parser warm up snapshot"));
+            }
+        }
+    }
+}
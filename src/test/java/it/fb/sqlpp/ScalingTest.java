@@ -0,0 +1,148 @@
+package it.fb.sqlpp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Formats statements of each shape at sizes doubling from {@link #MIN_SIZE} to {@link #MAX_SIZE}, and checks that
+ * the time and the bytes allocated grow no faster than declared. Costs are compared with the length of the
+ * statement plus the length of the formatted text, because nested shapes are indented deeper at every level, and
+ * writing that text is unavoidable.
+ * <p>
+ * The growth is the slope of the costs against the lengths on a log-log scale: 1 is linear, 2 quadratic.
+ */
+public class ScalingTest {
+
+    private static final int MIN_SIZE = 50;
+    private static final int MAX_SIZE = 800;
+    private static final int REPETITIONS = 7;
+    private static final int ATTEMPTS = 3;
+
+    /**
+     * Near-linear growth. Time is measured with a wider margin, since the JIT and the garbage collector still add
+     * noise to the fastest of the repetitions.
+     */
+    private static final double LINEAR_TIME = 1.4;
+    private static final double LINEAR_ALLOCATION = 1.15;
+
+    @Test
+    public void typicalIsLinear() {
+        assertScales(SqlGenerator.Shape.TYPICAL, LINEAR_TIME, LINEAR_ALLOCATION);
+    }
+
+    @Test
+    public void inListIsLinear() {
+        assertScales(SqlGenerator.Shape.IN_LIST, LINEAR_TIME, LINEAR_ALLOCATION);
+    }
+
+    @Test
+    public void nestedCaseIsLinear() {
+        assertScales(SqlGenerator.Shape.NESTED_CASE, LINEAR_TIME, LINEAR_ALLOCATION);
+    }
+
+    @Test
+    public void joinsAreLinear() {
+        assertScales(SqlGenerator.Shape.JOINS, LINEAR_TIME, LINEAR_ALLOCATION);
+    }
+
+    @Test
+    public void unionsAreLinear() {
+        assertScales(SqlGenerator.Shape.UNIONS, LINEAR_TIME, LINEAR_ALLOCATION);
+    }
+
+    @Test
+    public void orChainIsLinear() {
+        assertScales(SqlGenerator.Shape.OR_CHAIN, LINEAR_TIME, LINEAR_ALLOCATION);
+    }
+
+    private static void assertScales(SqlGenerator.Shape shape, double maxTimeGrowth, double maxAllocationGrowth) {
+        Measurements measurements = null;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            measurements = new Measurements(shape);
+            if (measurements.timeGrowth() <= maxTimeGrowth) {
+                break;
+            }
+        }
+        assertTrue(String.format("%s: time grows as %.2f, more than %.2f\n%s", shape, measurements.timeGrowth(), maxTimeGrowth, measurements),
+                measurements.timeGrowth() <= maxTimeGrowth);
+        Assume.assumeTrue("Allocations cannot be measured", AllocationMeter.isSupported());
+        assertTrue(String.format("%s: allocations grow as %.2f, more than %.2f\n%s", shape, measurements.allocationGrowth(), maxAllocationGrowth, measurements),
+                measurements.allocationGrowth() <= maxAllocationGrowth);
+    }
+
+    private static final class Measurements {
+        private final SqlGenerator.Shape shape;
+        private final int[] sizes;
+        private final long[] lengths;
+        private final long[] nanos;
+        private final long[] bytes;
+
+        Measurements(SqlGenerator.Shape shape) {
+            this.shape = shape;
+            int count = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+            sizes = new int[count];
+            lengths = new long[count];
+            nanos = new long[count];
+            bytes = new long[count];
+            String[] statements = new String[count];
+            for (int i = 0; i < count; i++) {
+                sizes[i] = MIN_SIZE << i;
+                statements[i] = shape.generate(sizes[i]);
+                lengths[i] = statements[i].length() + StatementLayout2.format(80, 2, statements[i]).length();
+            }
+            for (int i = 0; i < count; i++) {
+                nanos[i] = Long.MAX_VALUE;
+                bytes[i] = Long.MAX_VALUE;
+                for (int r = 0; r < REPETITIONS; r++) {
+                    measure(statements[i], i);
+                }
+            }
+        }
+
+        private void measure(String statement, int i) {
+            long before = AllocationMeter.isSupported() ? AllocationMeter.allocatedBytes() : 0;
+            long start = System.nanoTime();
+            StatementLayout2.format(80, 2, statement);
+            nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+            if (AllocationMeter.isSupported()) {
+                bytes[i] = Math.min(bytes[i], AllocationMeter.allocatedBytes() - before);
+            }
+        }
+
+        double timeGrowth() {
+            return slope(lengths, nanos);
+        }
+
+        double allocationGrowth() {
+            return slope(lengths, bytes);
+        }
+
+        /**
+         * @return The slope of the least squares line through the points, on a log-log scale
+         */
+        private static double slope(long[] xs, long[] ys) {
+            int n = xs.length;
+            double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+            for (int i = 0; i < n; i++) {
+                double x = Math.log(xs[i]);
+                double y = Math.log(Math.max(1, ys[i]));
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += x * x;
+            }
+            return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < sizes.length; i++) {
+                sb.append(String.format("%s %d: %d chars, %d us, %d bytes\n", shape, sizes[i], lengths[i], nanos[i] / 1000, bytes[i]));
+            }
+            return sb.toString();
+        }
+    }
+}
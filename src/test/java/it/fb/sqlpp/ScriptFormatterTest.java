@@ -0,0 +1,59 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptFormatterTest {
+
+    @Test
+    public void testSplit() {
+        assertEquals(Arrays.asList("SELECT ';' FROM T", "SELECT \"a;b\" FROM T -- ; not here", "DELETE FROM T"),
+                ScriptFormatter.split("SELECT ';' FROM T;\n" +
+                        "SELECT \"a;b\" FROM T -- ; not here\n;" +
+                        " /* ; */ ;\n" +
+                        "DELETE FROM T"));
+    }
+
+    @Test
+    public void testSplitEmpty() {
+        assertEquals(Collections.emptyList(), ScriptFormatter.split(" ; -- comment\n;"));
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("SELECT a\nFROM t;\n\nDELETE FROM t;\n\nnot sql at all\n",
+                ScriptFormatter.format(10, 2, "select a from t; delete from t;not sql at all"));
+    }
+
+    @Test
+    public void testFormatKeepsComments() {
+        assertEquals("-- create users\nSELECT * FROM TBL;\n\n/* keep me */\nSELECT A FROM B;\n\n-- trailing note\n",
+                ScriptFormatter.format(80, 2, "-- create users\nSELECT * FROM TBL; /* keep me */ SELECT A FROM B;\n-- trailing note\n"));
+        assertEquals("SELECT a\nFROM b -- after\n;\n\n-- only a comment\n;\n\nSELECT A, /* inner */ B FROM C;\n",
+                ScriptFormatter.format(10, 2, "select a from b -- after\n; -- only a comment\n;\nSELECT A, /* inner */ B FROM C;"));
+    }
+
+    @Test
+    public void testFormatKeepsOrder() {
+        StringBuilder script = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            String sql = "SELECT C" + i + " FROM T WHERE A = " + i;
+            script.append(sql).append(";\n");
+            expected.append(expected.length() == 0 ? "" : "\n").append(StatementLayout2.format(30, 2, sql)).append(";\n");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(expected.toString(), ScriptFormatter.format(30, 2, script.toString(), executor));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expected.toString(), ScriptFormatter.format(30, 2, script.toString()));
+    }
+}
@@ -0,0 +1,212 @@
+package it.fb.sqlpp;
+
+import java.util.Random;
+
+/**
+ * Generates statements of a given shape and size, always the same for the same arguments. Shared by the tests and
+ * the benchmarks.
+ */
+public final class SqlGenerator {
+
+    public enum Shape {
+        /**
+         * A statement with many columns, tables and conditions, as written by hand.
+         */
+        TYPICAL {
+            @Override
+            public String generate(int size) {
+                Random random = new Random(size);
+                StringBuilder sb = new StringBuilder("SELECT ");
+                for (int i = 0; i < size; i++) {
+                    sb.append(i == 0 ? "" : ", ").append("T").append(i % 4).append(".C").append(i);
+                    if (random.nextInt(4) == 0) {
+                        sb.append(" AS A").append(i);
+                    }
+                }
+                sb.append(" FROM T0");
+                for (int i = 1; i < 4; i++) {
+                    sb.append(random.nextBoolean() ? " LEFT JOIN T" : " INNER JOIN T").append(i)
+                            .append(" ON T").append(i - 1).append(".ID = T").append(i).append(".ID");
+                }
+                sb.append(" WHERE ");
+                for (int i = 0; i < size; i++) {
+                    sb.append(i == 0 ? "" : random.nextInt(3) == 0 ? " OR " : " AND ");
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            sb.append("T0.C").append(i).append(" = #{p").append(i).append("}");
+                            break;
+                        case 1:
+                            sb.append("T1.C").append(i).append(" LIKE 'x").append(i).append("%'");
+                            break;
+                        case 2:
+                            sb.append("T2.C").append(i).append(" IN (1, 2, 3)");
+                            break;
+                        default:
+                            sb.append("T3.C").append(i).append(" BETWEEN ").append(i).append(" AND ").append(i * 2);
+                            break;
+                    }
+                }
+                return sb.append(" ORDER BY T0.C0 DESC").toString();
+            }
+        },
+        /**
+         * A condition with a long list of values.
+         */
+        IN_LIST {
+            @Override
+            public String generate(int size) {
+                StringBuilder sb = new StringBuilder("SELECT * FROM TBL WHERE A IN (");
+                for (int i = 0; i < size; i++) {
+                    sb.append(i == 0 ? "" : ", ").append(i);
+                }
+                return sb.append(")").toString();
+            }
+        },
+        /**
+         * CASE expressions, each nested in the ELSE branch of the previous one.
+         */
+        NESTED_CASE {
+            @Override
+            public String generate(int size) {
+                StringBuilder sb = new StringBuilder("SELECT ");
+                for (int i = 0; i < size; i++) {
+                    sb.append("CASE WHEN A = ").append(i).append(" THEN ").append(i).append(" ELSE ");
+                }
+                sb.append("NULL");
+                for (int i = 0; i < size; i++) {
+                    sb.append(" END");
+                }
+                return sb.append(" FROM TBL").toString();
+            }
+        },
+        /**
+         * A chain of joins.
+         */
+        JOINS {
+            @Override
+            public String generate(int size) {
+                StringBuilder sb = new StringBuilder("SELECT * FROM T0");
+                for (int i = 1; i <= size; i++) {
+                    sb.append(" JOIN T").append(i).append(" ON T").append(i - 1).append(".ID = T").append(i).append(".ID");
+                }
+                return sb.toString();
+            }
+        },
+        /**
+         * Many queries joined by UNION ALL.
+         */
+        UNIONS {
+            @Override
+            public String generate(int size) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    sb.append(i == 0 ? "" : " UNION ALL ").append("SELECT A, B FROM T").append(i).append(" WHERE C = ").append(i);
+                }
+                return sb.toString();
+            }
+        },
+        /**
+         * A long chain of OR conditions.
+         */
+        OR_CHAIN {
+            @Override
+            public String generate(int size) {
+                StringBuilder sb = new StringBuilder("SELECT * FROM TBL WHERE ");
+                for (int i = 0; i < size; i++) {
+                    sb.append(i == 0 ? "" : " OR ").append("A").append(i).append(" = ").append(i);
+                }
+                return sb.toString();
+            }
+        };
+
+        /**
+         * @param size The number of repetitions of the characteristic element of the shape; at least 1
+         */
+        public abstract String generate(int size);
+    }
+
+    private SqlGenerator() {
+    }
+
+    /**
+     * @return A MyBatis mapper file holding {@code count} statements of the given shape and size
+     */
+    public static String mapper(Shape shape, int size, int count) {
+        StringBuilder sb = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n")
+                .append("<mapper namespace=\"it.fb.sqlpp.Generated\">\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("    <select id=\"select").append(i).append("\" resultType=\"map\">\n")
+                    .append(shape.generate(size).replace("<", "&lt;")).append('\n')
+                    .append("    </select>\n");
+        }
+        return sb.append("</mapper>\n").toString();
+    }
+
+    /**
+     * @return A statement selecting two random value expressions, filtered by a random boolean expression, mixing
+     * logical and arithmetic operators of all precedences
+     */
+    public static String expressions(Random random) {
+        return "SELECT " + valueExpression(random, 0) + ", " + valueExpression(random, 0)
+                + " FROM TBL WHERE " + booleanExpression(random, 0);
+    }
+
+    private static String booleanExpression(Random random, int depth) {
+        StringBuilder sb = new StringBuilder();
+        int terms = 1 + random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                sb.append(random.nextBoolean() ? " AND " : " OR ");
+            }
+            switch (depth < 3 ? random.nextInt(6) : 5) {
+                case 0:
+                    sb.append("(").append(booleanExpression(random, depth + 1)).append(")");
+                    break;
+                case 1:
+                    sb.append("NOT ").append(booleanExpression(random, depth + 1));
+                    break;
+                case 2:
+                    sb.append(valueExpression(random, depth + 1)).append(" IN (")
+                            .append(valueExpression(random, depth + 1)).append(", 1)");
+                    break;
+                case 3:
+                    sb.append(valueExpression(random, depth + 1)).append(" IS NOT NULL");
+                    break;
+                default:
+                    sb.append(valueExpression(random, depth + 1)).append(" = ").append(valueExpression(random, depth + 1));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String valueExpression(Random random, int depth) {
+        StringBuilder sb = new StringBuilder();
+        int terms = 1 + random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                sb.append(" ").append(random.nextInt(6) == 0 ? "||" : String.valueOf("+-*/%".charAt(random.nextInt(5)))).append(" ");
+            }
+            switch (depth < 3 ? random.nextInt(6) : 5) {
+                case 0:
+                    sb.append("(").append(valueExpression(random, depth + 1)).append(")");
+                    break;
+                case 1:
+                    sb.append("F(").append(valueExpression(random, depth + 1)).append(", B)");
+                    break;
+                case 2:
+                    sb.append("-X");
+                    break;
+                case 3:
+                    sb.append("CASE WHEN ").append(booleanExpression(random, depth + 1)).append(" THEN 1 END");
+                    break;
+                default:
+                    sb.append("C").append(random.nextInt(100));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+}
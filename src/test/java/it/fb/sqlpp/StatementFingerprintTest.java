@@ -0,0 +1,51 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StatementFingerprintTest {
+
+    @Test
+    public void testText() {
+        assertEquals("SELECT A, \"Mixed\" FROM TBL WHERE A = ? AND B IN ( ? ) AND C LIKE ?",
+                StatementFingerprint.of("select a, \"Mixed\" from tbl where a = -12.5 and b in (1, 'x', ?) and c like 'a%'").getText());
+    }
+
+    @Test
+    public void testLiteralsIgnored() {
+        assertSameFingerprint("SELECT * FROM T WHERE A = 1 AND B = 'x'", "select * from t where a = 2 and b = 'yy'");
+        assertSameFingerprint("SELECT * FROM T WHERE A IN (1, 2, 3)", "SELECT * FROM T WHERE A IN (4)");
+        assertSameFingerprint("SELECT * FROM T WHERE A NOT IN (#{a}, #{b})", "SELECT * FROM T WHERE A NOT IN (?)");
+        assertSameFingerprint("SELECT A + 1.5E3 FROM T", "SELECT A + -2 FROM T");
+    }
+
+    @Test
+    public void testShapeKept() {
+        assertDifferentFingerprint("SELECT * FROM T WHERE A = 1", "SELECT * FROM T WHERE B = 1");
+        assertDifferentFingerprint("SELECT * FROM T WHERE A IN (1, 2)", "SELECT * FROM T WHERE A IN (1, B)");
+        assertDifferentFingerprint("SELECT \"a\" FROM T", "SELECT \"A\" FROM T");
+        assertDifferentFingerprint("SELECT * FROM T WHERE A = 1", "SELECT * FROM T WHERE A <> 1");
+    }
+
+    @Test(expected = ParseException.class)
+    public void testParseError() {
+        StatementFingerprint.of("SELECT FROM");
+    }
+
+    private static void assertSameFingerprint(String sql1, String sql2) {
+        StatementFingerprint f1 = StatementFingerprint.of(sql1);
+        StatementFingerprint f2 = StatementFingerprint.of(sql2);
+        assertEquals(f1, f2);
+        assertEquals(f1.hash64(), f2.hash64());
+        assertEquals(f1.hash128(), f2.hash128());
+    }
+
+    private static void assertDifferentFingerprint(String sql1, String sql2) {
+        StatementFingerprint f1 = StatementFingerprint.of(sql1);
+        StatementFingerprint f2 = StatementFingerprint.of(sql2);
+        assertNotEquals(f1, f2);
+        assertNotEquals(f1.hash64(), f2.hash64());
+    }
+}
@@ -1,10 +1,38 @@
 package it.fb.sqlpp;
 
+import com.google.common.base.Strings;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class StatementLayout2Test {
 
@@ -588,6 +616,338 @@ public class StatementLayout2Test {
                 "ORDER BY t.CMN_CONTRACTID, t.CMN_EVTTM_EVTDATE DESC NULLS LAST");
     }
 
+    @Test
+    public void formatAfterSyntaxError() {
+        try {
+            StatementLayout2.format(80, 2, "SELECT * FROM WHERE");
+            fail("Expected ParseException");
+        } catch (ParseException expected) {
+            // The parser must be reusable afterwards
+        }
+        assertFormatEquals(80, 2, "SELECT * FROM TBL WHERE A = B");
+    }
+
+    @Test
+    public void formatToAppendable() throws IOException {
+        StringWriter writer = new StringWriter();
+        StatementLayout2.format(15, 2, "SELECT * FROM TBL WHERE A = B", writer);
+        assertEquals("SELECT *\nFROM TBL\nWHERE A = B", writer.toString());
+        StringBuilder sb = new StringBuilder();
+        StatementLayout2.format(15, 2, "SELECT * FROM TBL WHERE A = B", sb);
+        sb.append(";\n");
+        StatementLayout2.format(80, 2, "SELECT * FROM TBL", sb);
+        assertEquals("SELECT *\nFROM TBL\nWHERE A = B;\nSELECT * FROM TBL", sb.toString());
+    }
+
+    @Test
+    public void formatListener() {
+        List<FormatMetrics> reported = new ArrayList<>();
+        StatementLayout2.setFormatListener(reported::add);
+        try {
+            StatementLayout2.format(15, 2, "SELECT * FROM TBL WHERE A = B");
+            StatementLayout2.format(80, 2, "SELECT FIRST FROM TBL");
+        } finally {
+            StatementLayout2.setFormatListener(null);
+        }
+        StatementLayout2.format(80, 2, "SELECT * FROM TBL");
+        assertEquals(2, reported.size());
+
+        FormatMetrics fast = reported.get(0);
+        assertEquals(FormatMetrics.Parser.FAST_PATH, fast.getParser());
+        assertEquals(8, fast.getTokenCount());
+        assertEquals("SELECT *\nFROM TBL\nWHERE A = B".length(), fast.getOutputLength());
+        assertTrue(fast.getBrokenSubtrees() > 0);
+        assertTrue(fast.getMaxDepth() > 0);
+        // A coarse clock may well measure 0 for a phase this short
+        assertTrue(fast.getLexingNanos() >= 0 && fast.getFastPathNanos() >= 0 && fast.getLayoutNanos() >= 0);
+        assertEquals(0, fast.getSllNanos() + fast.getLlNanos());
+
+        FormatMetrics antlr = reported.get(1);
+        assertEquals(FormatMetrics.Parser.SLL, antlr.getParser());
+        assertEquals(4, antlr.getTokenCount());
+        assertEquals("SELECT FIRST FROM TBL".length(), antlr.getOutputLength());
+        assertEquals(0, antlr.getBrokenSubtrees());
+        assertTrue(antlr.getSllNanos() >= 0 && antlr.getToTreeNanos() >= 0);
+        assertEquals(antlr.getTotalNanos(), antlr.getLexingNanos() + antlr.getFastPathNanos() + antlr.getSllNanos()
+                + antlr.getToTreeNanos() + antlr.getLayoutNanos());
+    }
+
+    @Test(expected = ParseException.class)
+    public void formatSyntaxError() {
+        StatementLayout2.format(80, 2, "SELECT * FROM WHERE");
+    }
+
+    @Test
+    public void parseCountsStages() {
+        ParserStatistics statistics = StatementLayout2.parserStatistics();
+        long fastParses = statistics.getFastParses();
+        long sllParses = statistics.getSllParses();
+        long failedParses = statistics.getFailedParses();
+        StatementLayout2.format(80, 2, "SELECT * FROM TBL WHERE A = B");
+        StatementLayout2.invokeParser("SELECT * FROM TBL WHERE A = B");
+        try {
+            StatementLayout2.format(80, 2, "SELECT * FROM TBL WHERE");
+        } catch (ParseException expected) {
+            assertEquals("Syntax error at 1:23: no viable alternative at input '<EOF>'", expected.getMessage());
+        }
+        assertEquals(fastParses + 1, statistics.getFastParses());
+        assertEquals(sllParses + 1, statistics.getSllParses());
+        assertEquals(failedParses + 1, statistics.getFailedParses());
+    }
+
+    @Test
+    public void parseFallsBackToLl() {
+        // SLL lets the lambda take "Y AND Z" as its body, leaving BETWEEN without its AND
+        String statement = "SELECT * FROM T WHERE A BETWEEN X -> Y AND Z";
+        ParserStatistics statistics = StatementLayout2.parserStatistics();
+        long sllParses = statistics.getSllParses();
+        long llParses = statistics.getLlParses();
+        long failedParses = statistics.getFailedParses();
+        StatementLayout2.invokeParser(statement);
+        assertEquals(sllParses, statistics.getSllParses());
+        assertEquals(llParses + 1, statistics.getLlParses());
+        assertEquals(failedParses, statistics.getFailedParses());
+    }
+
+    @Test
+    public void parseTreeNotRetained() {
+        StatementLayout2.invokeParser("WITH X AS (SELECT 1) SELECT * FROM X");
+        assertParserReleased();
+        try {
+            StatementLayout2.invokeParser("SELECT * FROM X WHERE");
+            fail("Expected ParseException");
+        } catch (ParseException ex) {
+            assertParserReleased();
+        }
+        Tree tree = StatementLayout2.toTree("WITH X AS (SELECT 1) SELECT * FROM X");
+        assertTrue(tree instanceof CompactTree);
+        assertNotReachable(tree, ParseTree.class, Token.class);
+    }
+
+    @Test
+    public void formatConcurrently() throws Exception {
+        String[] statements = {
+                "SELECT *\nFROM TBL1\n  INNER JOIN TBL2\n    ON A = B\n  LEFT JOIN TBL3\n    ON C < D",
+                "SELECT X,\n  CASE WHEN A = B\n      THEN 1\n    WHEN C = D\n      THEN 2\n    ELSE 3\n    END\nFROM TBL",
+                "INSERT INTO TBL\nVALUES ( ( 1, 2, 3),\n  ( 4, 5, 6))"
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                String sql = statements[i % statements.length];
+                results.add(executor.submit(() -> StatementLayout2.format(20, 2, sql)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(statements[i % statements.length], results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void formatWithinTimeout() {
+        assertEquals("SELECT *\nFROM TBL\nWHERE A = B",
+                StatementLayout2.format(20, 2, "SELECT * FROM TBL WHERE A = B", 1, TimeUnit.MINUTES));
+    }
+
+    @Test(expected = FormatTimeoutException.class)
+    public void formatTimeout() {
+        StatementLayout2.format(80, 2, largeStatement(), 1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void parseTimeoutNotCountedAsSyntaxError() {
+        ParserStatistics statistics = StatementLayout2.parserStatistics();
+        long failedParses = statistics.getFailedParses();
+        long timedOutParses = statistics.getTimedOutParses();
+        try {
+            StatementLayout2.invokeParser(largeStatement(), Deadline.after(1, TimeUnit.NANOSECONDS));
+            fail("Expected FormatTimeoutException");
+        } catch (ParseException ex) {
+            fail("A timeout is not a syntax error");
+        } catch (FormatTimeoutException expected) {
+            // Counted apart
+        }
+        assertEquals(failedParses, statistics.getFailedParses());
+        assertEquals(timedOutParses + 1, statistics.getTimedOutParses());
+    }
+
+    @Test
+    public void formatOrMinify() {
+        String sql = largeStatement();
+        assertEquals(sql, StatementLayout2.formatOrMinify(80, 2, sql, 1, TimeUnit.MILLISECONDS));
+        assertEquals("SELECT * FROM TBL", StatementLayout2.format(80, 2, "SELECT * FROM TBL"));
+    }
+
+    @Test
+    public void minify() {
+        assertEquals("SELECT a, 'x  y' FROM tbl WHERE b=c",
+                StatementLayout2.minify("SELECT a, 'x  y' -- comment\n  FROM /* more */ tbl\n\tWHERE b=c\n"));
+    }
+
+    @Test
+    public void formatDeeplyNested() throws Exception {
+        int depth = 2000;
+        String sql = "SELECT " + Strings.repeat("(", depth) + "1" + Strings.repeat(")", depth) + " FROM TBL";
+        String expected = "SELECT " + Strings.repeat("( ", depth) + "1" + Strings.repeat(")", depth) + " FROM TBL";
+        // a small stack, which the parser overflows
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                result.set(StatementLayout2.format(Integer.MAX_VALUE / 2, 2, sql));
+            } catch (Throwable t) {
+                result.set(t);
+            }
+        }, "small-stack", 512 * 1024);
+        thread.start();
+        thread.join();
+        assertEquals(expected, result.get());
+    }
+
+    @Test
+    public void formatDeeplyNestedConcurrently() throws Exception {
+        int depth = 2000;
+        String sql = "SELECT " + Strings.repeat("(", depth) + "1" + Strings.repeat(")", depth) + " FROM TBL";
+        String expected = "SELECT " + Strings.repeat("( ", depth) + "1" + Strings.repeat(")", depth) + " FROM TBL";
+        List<AtomicReference<Object>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            AtomicReference<Object> result = new AtomicReference<>();
+            results.add(result);
+            threads.add(new Thread(null, () -> {
+                try {
+                    result.set(StatementLayout2.format(Integer.MAX_VALUE / 2, 2, sql));
+                } catch (Throwable t) {
+                    result.set(t);
+                }
+            }, "small-stack-" + i, 512 * 1024));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (AtomicReference<Object> result : results) {
+            assertEquals(expected, result.get());
+        }
+        // The deep statements share a few pooled large-stack threads, rather than starting one each
+        long deepThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("sqlpp-deep-parser"))
+                .count();
+        assertTrue(String.valueOf(deepThreads), deepThreads >= 1 && deepThreads <= 2);
+    }
+
+    @Test
+    public void formatLongChains() {
+        StringBuilder sql = new StringBuilder("SELECT C0");
+        for (int i = 1; i < 5000; i++) {
+            sql.append(i % 2 == 0 ? " + C" : " * C").append(i);
+        }
+        sql.append(" FROM TBL WHERE A = 0");
+        for (int i = 1; i < 5000; i++) {
+            sql.append(" OR A = ").append(i);
+        }
+        assertEquals(sql.toString(), StatementLayout2.format(Integer.MAX_VALUE / 2, 2, sql.toString()));
+    }
+
+    @Test
+    public void formatMixedPrecedenceChain() {
+        assertFormatEquals(20, 2, "SELECT *\nFROM TBL\nWHERE A = 1\n  OR  B = 2\n  AND C = 3\n  OR D = 4");
+    }
+
+    @Test
+    public void formatChainsAsNested() {
+        Random random = new Random(42);
+        NestedChainLayout nested = new NestedChainLayout();
+        for (int i = 0; i < 400; i++) {
+            String sql = SqlGenerator.expressions(random);
+            Tree expected = nested.toTree(StatementLayout2.invokeParser(sql));
+            for (int width : new int[]{10, 20, 40, 80}) {
+                assertEquals(sql, TreeLayout.format(width, 2, expected), StatementLayout2.format(width, 2, sql));
+            }
+        }
+    }
+
+    /**
+     * Checks, through the private fields of the parser context of the current thread, that nothing in it still refers
+     * to the last statement parsed.
+     */
+    private static void assertParserReleased() {
+        Object context = ((ThreadLocal<?>) readField(StatementLayout2.class, null, "PARSER_CONTEXT")).get();
+        Lexer lexer = (Lexer) readField(context.getClass(), context, "lexer");
+        CommonTokenStream tokenStream = (CommonTokenStream) readField(context.getClass(), context, "tokenStream");
+        Parser parser = (Parser) readField(context.getClass(), context, "parser");
+        Object simulator = readField(context.getClass(), context, "simulator");
+        assertEquals(0, lexer.getInputStream().size());
+        assertEquals(0, tokenStream.size());
+        assertNull(parser.getContext());
+        if (simulator != null) {
+            assertNull(readField(ParserATNSimulator.class, simulator, "_input"));
+            assertNull(readField(ParserATNSimulator.class, simulator, "_outerContext"));
+        }
+    }
+
+    private static Object readField(Class<?> type, Object object, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(object);
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Walks the fields of the objects reachable from the root, without looking into the JDK classes.
+     */
+    private static void assertNotReachable(Object root, Class<?>... types) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (!visited.add(object)) {
+                continue;
+            }
+            for (Class<?> type : types) {
+                assertFalse(object.getClass().getName(), type.isInstance(object));
+            }
+            if (object instanceof Object[]) {
+                for (Object element : (Object[]) object) {
+                    if (element != null) {
+                        pending.push(element);
+                    }
+                }
+                continue;
+            }
+            for (Class<?> c = object.getClass(); c != null && !c.getName().startsWith("java."); c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    try {
+                        Object value = field.get(object);
+                        if (value != null) {
+                            pending.push(value);
+                        }
+                    } catch (IllegalAccessException ex) {
+                        throw new AssertionError(ex);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String largeStatement() {
+        StringBuilder sb = new StringBuilder("SELECT * FROM TBL WHERE A = 0");
+        for (int i = 1; i < 20000; i++) {
+            sb.append(" OR A = ").append(i);
+        }
+        return sb.toString();
+    }
+
     private static void assertFormatEquals(int lineWidth, int indentWidth, String sql) {
         String formatted2 = StatementLayout2.format(lineWidth, indentWidth, sql);
         if (!sql.equals(formatted2)) {
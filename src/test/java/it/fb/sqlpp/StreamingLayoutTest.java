@@ -0,0 +1,77 @@
+package it.fb.sqlpp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingLayoutTest {
+
+    private final Tree innerJoinCode = c -> c
+            .child("SELECT", "", c1 -> c1.leaf("*"))
+            .child("FROM", "", c1 -> c1
+                    .child("", "", c2 -> c2.leaf("TBL1"))
+                    .child("INNER JOIN", "", c2 -> c2
+                            .leaf("TBL2")
+                            .child("ON", "", c3 -> c3
+                                    .child("", "", c4 -> c4.leaf("X"))
+                                    .child("=", "", c4 -> c4.leaf("Y")))))
+            .child("WHERE", "", c1 -> c1
+                    .child("", "", c2 -> c2.leaf("A"))
+                    .child("=", "", c2 -> c2.leaf("B")));
+
+    @Test
+    public void testInnerJoin() throws IOException {
+        for (int lineWidth : new int[]{80, 40, 30, 20}) {
+            assertEquals(TreeLayout.format(lineWidth, 2, innerJoinCode), format(lineWidth, 2, innerJoinCode));
+        }
+    }
+
+    @Test
+    public void testSameOutputAsTreeLayout() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Tree tree = TreeLayoutTest.randomTree(random, 0);
+            for (int lineWidth : new int[]{5, 10, 20, 40, 80}) {
+                assertEquals(TreeLayout.format(lineWidth, 2, tree), format(lineWidth, 2, tree));
+            }
+        }
+    }
+
+    @Test
+    public void testSameOutputAsTreeLayoutOnStatements() throws IOException {
+        String sql = "SELECT X, CASE WHEN A = B THEN 1 WHEN C = D THEN FUNC(E, F, G) ELSE 3 END AS Y " +
+                "FROM TBL1 INNER JOIN TBL2 ON A = B LEFT JOIN TBL3 ON C < D " +
+                "WHERE A IN (LONG_COL_1, LONG_COL_2) AND EXISTS (SELECT * FROM TBL4 WHERE X = Y) " +
+                "ORDER BY X, Y DESC";
+        for (int lineWidth : new int[]{5, 15, 20, 30, 40, 60, 80, 200}) {
+            Tree tree = StatementLayout2.toTree(sql);
+            assertEquals(TreeLayout.format(lineWidth, 4, tree), format(lineWidth, 4, tree));
+        }
+    }
+
+    @Test
+    public void testOutputWrittenWhileVisiting() throws IOException {
+        StringBuilder output = new StringBuilder();
+        int[] lagging = {0};
+        Tree values = nc -> {
+            for (int i = 0; i < 10000; i++) {
+                String value = Integer.toString(i);
+                nc.child("", ",", c -> c.leaf(value));
+                if (i > 100 && !output.substring(output.length() - value.length() - 1).equals(value + ",")) {
+                    lagging[0]++;
+                }
+            }
+        };
+        StreamingLayout.format(40, 2, c -> c.child("VALUES (", ")", values), output);
+        assertEquals(0, lagging[0]);
+    }
+
+    private static String format(int lineWidth, int indentWidth, Tree tree) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        StreamingLayout.format(lineWidth, indentWidth, tree, sb);
+        return sb.toString();
+    }
+}
@@ -1,7 +1,15 @@
 package it.fb.sqlpp;
 
+import com.google.common.base.Strings;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 public class TreeLayoutTest {
@@ -75,4 +83,96 @@ public class TreeLayoutTest {
     public void testInnerJoinIndent_W20() {
         assertEquals("SELECT *\nFROM TBL1\n  INNER JOIN TBL2\n    ON X = Y\nWHERE A = B", TreeLayout.format(20, 2, innerJoinCode));
     }
+
+    @Test
+    public void testSameOutputAsBacktrackingLayout() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Tree tree = randomTree(random, 0);
+            for (int lineWidth : new int[]{5, 10, 20, 40, 80}) {
+                assertEquals(BacktrackingTreeLayout.format(lineWidth, 2, tree), TreeLayout.format(lineWidth, 2, tree));
+            }
+        }
+    }
+
+    @Test
+    public void testFormatToAppendable() throws IOException {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            Tree tree = randomTree(random, 0);
+            String expected = TreeLayout.format(20, 2, tree);
+            StringWriter writer = new StringWriter();
+            TreeLayout.format(20, 2, tree, writer);
+            assertEquals(expected, writer.toString());
+            sb.setLength(0);
+            sb.append("prefix");
+            TreeLayout.format(20, 2, tree, sb);
+            assertEquals("prefix" + expected, sb.toString());
+        }
+    }
+
+    @Test
+    public void testEverySubtreeVisitedOnce() {
+        AtomicInteger acceptCount = new AtomicInteger();
+        Tree tree = nested(500, acceptCount);
+        TreeLayout.format(20, 2, tree);
+        assertEquals(501, acceptCount.get());
+    }
+
+    @Test
+    public void testDeepIndentation() {
+        String formatted = TreeLayout.format(10, 2, nested(700, new AtomicInteger()));
+        String lastLine = formatted.substring(formatted.lastIndexOf('\n') + 1);
+        assertEquals(Strings.repeat(" ", 1398) + "AND ( A0" + Strings.repeat(")", 700), lastLine);
+    }
+
+    @Test
+    public void testVeryDeepTree() {
+        String formatted = TreeLayout.format(Integer.MAX_VALUE / 2, 2, nested(100000, new AtomicInteger()));
+        assertTrue(formatted.startsWith("A100000 AND ( A99999 AND ( A99998"));
+        assertTrue(formatted.endsWith("A0" + Strings.repeat(")", 100000)));
+    }
+
+    private static Tree nested(int depth, AtomicInteger acceptCount) {
+        return nc -> {
+            acceptCount.incrementAndGet();
+            nc.leaf("A" + depth);
+            if (depth > 0) {
+                nc.child("AND (", ")", nested(depth - 1, acceptCount));
+            }
+        };
+    }
+
+    static Tree randomTree(Random random, int depth) {
+        List<Tree> items = new ArrayList<>();
+        if (depth < 4 && random.nextInt(5) == 0) {
+            String preLabel = randomLabel(random);
+            String postLabel = randomLabel(random);
+            Tree subTree = randomTree(random, depth + 1);
+            return nc -> nc.singleChild(preLabel, postLabel, subTree);
+        }
+        int count = random.nextInt(depth < 4 ? 5 : 3);
+        for (int i = 0; i < count; i++) {
+            if (depth < 4 && random.nextBoolean()) {
+                String preLabel = randomLabel(random);
+                String postLabel = randomLabel(random);
+                Tree subTree = randomTree(random, depth + 1);
+                items.add(nc -> nc.child(preLabel, postLabel, subTree));
+            } else {
+                String text = randomLabel(random);
+                items.add(nc -> nc.leaf(text));
+            }
+        }
+        return nc -> items.forEach(item -> item.accept(nc));
+    }
+
+    private static String randomLabel(Random random) {
+        int length = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('A' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
 }
@@ -19,12 +19,12 @@ public class TreePrint implements Tree.Visitor {
     }
 
     @Override
-    public Tree.Visitor leaf(String text) {
+    public Tree.Visitor leaf(CharSequence text) {
         indent(text);
         return this;
     }
 
-    private void indent(String text) {
+    private void indent(CharSequence text) {
         for (int i = 0; i < indent; i++) {
             pw.print("    ");
         }
@@ -32,7 +32,7 @@ public class TreePrint implements Tree.Visitor {
     }
 
     @Override
-    public Tree.Visitor child(String preLabel, String postLabel, Tree subTree) {
+    public Tree.Visitor child(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
         indent(preLabel + "-" + postLabel);
         indent++;
         subTree.accept(this);
@@ -41,7 +41,7 @@ public class TreePrint implements Tree.Visitor {
     }
 
     @Override
-    public void singleChild(String preLabel, String postLabel, Tree subTree) {
+    public void singleChild(CharSequence preLabel, CharSequence postLabel, Tree subTree) {
         indent(preLabel + "." + postLabel);
         indent++;
         subTree.accept(this);
@@ -0,0 +1,207 @@
+package it.fb.sqlpp.mybatis;
+
+import com.google.common.io.Resources;
+import it.fb.sqlpp.SqlGenerator;
+import it.fb.sqlpp.StatementLayout2;
+import it.fb.sqlpp.it.fb.sqlpp.mybatis.MybatisBatchFormatter;
+import it.fb.sqlpp.it.fb.sqlpp.mybatis.MybatisFormatter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MybatisBatchFormatterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private Path generated;
+    private Path formatted;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.getRoot().toPath();
+        Path mappers = Files.createDirectories(root.resolve("a").resolve("b"));
+        generated = mappers.resolve("Generated.xml");
+        Files.write(generated, SqlGenerator.mapper(SqlGenerator.Shape.TYPICAL, 3, 5).getBytes(StandardCharsets.UTF_8));
+        formatted = root.resolve("test.xml");
+        Files.write(formatted, Resources.toByteArray(Resources.getResource("test.xml")));
+        Files.write(root.resolve("other.xml"), "<beans/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("broken.xml"), "<mapper><select>".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("notes.txt"), "Not XML".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFormatDirectory() throws Exception {
+        MybatisBatchFormatter.Result result = new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        assertEquals(1, result.getFormatted());
+        assertEquals(0, result.getSkipped());
+        assertEquals(1, result.getUnchanged());
+        assertEquals(0, result.getFailed().size());
+        assertTrue(Files.exists(root.resolve(MybatisBatchFormatter.MANIFEST_FILE_NAME)));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] mapper = SqlGenerator.mapper(SqlGenerator.Shape.TYPICAL, 3, 5).getBytes(StandardCharsets.UTF_8);
+        MybatisFormatter.format(new ByteArrayInputStream(mapper), expected, 80, 4);
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(generated));
+        assertArrayEquals(Resources.toByteArray(Resources.getResource("test.xml")), Files.readAllBytes(formatted));
+        assertEquals("<beans/>", new String(Files.readAllBytes(root.resolve("other.xml")), StandardCharsets.UTF_8));
+        assertEquals("<mapper><select>", new String(Files.readAllBytes(root.resolve("broken.xml")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSkipUnchanged() throws Exception {
+        new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        MybatisBatchFormatter.Result result = new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        assertEquals(0, result.getFormatted());
+        assertEquals(2, result.getSkipped());
+        assertEquals(0, result.getUnchanged());
+        assertEquals(0, result.getFailed().size());
+    }
+
+    @Test
+    public void testSkipWithoutParsing() throws Exception {
+        AtomicInteger parsed = new AtomicInteger();
+        StatementLayout2.setFormatListener(metrics -> parsed.incrementAndGet());
+        try {
+            new MybatisBatchFormatter(80, 4).formatDirectory(root);
+            assertTrue(parsed.get() > 0);
+            parsed.set(0);
+            new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        } finally {
+            StatementLayout2.setFormatListener(null);
+        }
+        assertEquals(0, parsed.get());
+    }
+
+    @Test
+    public void testSkipHiddenAndBuildDirectories() throws Exception {
+        byte[] mapper = SqlGenerator.mapper(SqlGenerator.Shape.TYPICAL, 3, 5).getBytes(StandardCharsets.UTF_8);
+        Path module = Files.createDirectories(root.resolve("module"));
+        Files.write(module.resolve("pom.xml"), "<project/>".getBytes(StandardCharsets.UTF_8));
+        List<Path> excluded = Arrays.asList(root.resolve("a").resolve(".git"), root.resolve("target"),
+                root.resolve("build"), module.resolve("out"));
+        for (Path directory : excluded) {
+            Files.createDirectories(directory);
+        }
+        List<Path> copies = new ArrayList<>();
+        for (Path directory : excluded) {
+            copies.add(directory.resolve("Generated.xml"));
+        }
+        copies.add(root.resolve("a").resolve("Generated.xml.orig"));
+        for (Path copy : copies) {
+            Files.write(copy, mapper);
+        }
+        // Not at the root of a project: a source package
+        Path source = Files.createDirectories(root.resolve("a").resolve("build")).resolve("Generated.xml");
+        Files.write(source, mapper);
+
+        MybatisBatchFormatter.Result result = new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        assertEquals(2, result.getFormatted());
+        assertEquals(new HashSet<>(excluded), new HashSet<>(result.getExcluded()));
+        for (Path copy : copies) {
+            assertArrayEquals(copy.toString(), mapper, Files.readAllBytes(copy));
+        }
+        assertArrayEquals(Files.readAllBytes(generated), Files.readAllBytes(source));
+    }
+
+    @Test
+    public void testStopOnUnexpectedFailure() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            Files.write(root.resolve("Generated" + i + ".xml"),
+                    SqlGenerator.mapper(SqlGenerator.Shape.TYPICAL, 3, 5).getBytes(StandardCharsets.UTF_8));
+        }
+        // Parsed, but not supported by the layout
+        Path failing = root.resolve("Failing.xml");
+        Files.write(failing, ("<mapper><select id=\"s\">SELECT * FROM TBL TABLESAMPLE BERNOULLI (10)</select></mapper>")
+                .getBytes(StandardCharsets.UTF_8));
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(path -> path.toString().endsWith(".xml")).collect(Collectors.toList());
+        }
+        Map<Path, byte[]> before = new HashMap<>();
+        for (Path file : files) {
+            before.put(file, Files.readAllBytes(file));
+        }
+
+        // Run in turn on the calling thread: the workers after the failing one must not start any file
+        try {
+            new MybatisBatchFormatter(80, 4, Runnable::run).formatDirectory(root);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Failing.xml
+        }
+        for (Path file : files.subList(files.indexOf(failing), files.size())) {
+            assertArrayEquals(file.toString(), before.get(file), Files.readAllBytes(file));
+        }
+        assertFalse(Files.exists(root.resolve(MybatisBatchFormatter.MANIFEST_FILE_NAME)));
+    }
+
+    @Test
+    public void testReformatChanged() throws Exception {
+        new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        Files.write(generated, SqlGenerator.mapper(SqlGenerator.Shape.JOINS, 3, 5).getBytes(StandardCharsets.UTF_8));
+        MybatisBatchFormatter.Result result = new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        assertEquals(1, result.getFormatted());
+        assertEquals(1, result.getSkipped());
+        assertEquals(0, result.getUnchanged());
+    }
+
+    @Test
+    public void testReformatWithOtherWidths() throws Exception {
+        new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        MybatisBatchFormatter.Result result = new MybatisBatchFormatter(40, 2).formatDirectory(root);
+        assertEquals(2, result.getFormatted());
+        assertEquals(0, result.getUnchanged());
+    }
+
+    @Test
+    public void testCorruptedManifest() throws Exception {
+        new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        Path manifest = root.resolve(MybatisBatchFormatter.MANIFEST_FILE_NAME);
+        byte[] valid = Files.readAllBytes(manifest);
+        Files.write(manifest, new byte[]{1, 2, 3});
+        assertFormatsAgain();
+
+        // After the header of four ints: the number of entries, then the length of the first path
+        for (int offset : new int[]{16, 20}) {
+            for (int corrupted : new int[]{-1, Integer.MAX_VALUE, Integer.MAX_VALUE - 8}) {
+                ByteBuffer buffer = ByteBuffer.wrap(valid.clone());
+                buffer.putInt(offset, corrupted);
+                Files.write(manifest, buffer.array());
+                assertFormatsAgain();
+            }
+        }
+    }
+
+    private void assertFormatsAgain() throws IOException {
+        MybatisBatchFormatter.Result result = new MybatisBatchFormatter(80, 4).formatDirectory(root);
+        assertEquals(0, result.getFormatted());
+        assertEquals(0, result.getSkipped());
+        assertEquals(2, result.getUnchanged());
+    }
+}